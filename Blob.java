@@ -1,74 +1,435 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 public class Blob implements Serializable {
 
 
     /** @param fileName name of file currently in cwd
      *  Returns the id of the file with given name
-     *  in CWD. */
+     *  in CWD, reusing the DirCache entry of an
+     *  unchanged file. */
     public static String contentID(String fileName) {
         File temp = new File(Main.CWD + "/" + fileName);
         if (!temp.exists()) {
+            DirCache.forget(fileName);
             return null;
         }
-        return Utils.sha1(fileName + Utils.readContentsAsString(temp));
+        return DirCache.contentID(fileName, temp);
+    }
+
+    /** @param fileNames names of files currently in cwd
+     *  Returns the ids of the files with given names in CWD,
+     *  hashing them in parallel on Options.jobs threads.
+     *  @return TreeMap from file name to id, or to null for
+     *  a file that does not exist */
+    public static TreeMap<String, String> contentIDs(
+            Collection<String> fileNames) {
+        String[] names = fileNames.toArray(new String[0]);
+        String[] ids = new String[names.length];
+        if (Options.jobs <= 1 || names.length < 2) {
+            new HashTask(names, ids, 0, names.length).compute();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(Options.jobs);
+            try {
+                pool.invoke(new HashTask(names, ids, 0, names.length));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        TreeMap<String, String> result = new TreeMap<String, String>();
+        for (int i = 0; i < names.length; i++) {
+            result.put(names[i], ids[i]);
+        }
+        return result;
+    }
+
+    /** Hashes a range of file names, splitting it in half
+     * until it is small enough to do on one thread. */
+    private static class HashTask extends RecursiveAction {
+        /** ID to ensure that serialization goes off with no issue. */
+        private static final long serialVersionUID = 8351960482730495117L;
+        /** Most files hashed by one task without splitting. */
+        private static final int THRESHOLD = 8;
+        /** Names of all the files. */
+        private final String[] names;
+        /** Ids of all the files, filled in by index. */
+        private final String[] ids;
+        /** First index of this task's range. */
+        private final int from;
+        /** Index after the end of this task's range. */
+        private final int to;
+
+        /** @param n names of all the files
+         *  @param i array of the ids to fill in
+         *  @param lo first index to hash
+         *  @param hi index after the last one to hash
+         * Initializes a task over [lo, hi). */
+        HashTask(String[] n, String[] i, int lo, int hi) {
+            names = n;
+            ids = i;
+            from = lo;
+            to = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    ids[i] = contentID(names[i]);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new HashTask(names, ids, from, mid),
+                    new HashTask(names, ids, mid, to));
+        }
+    }
+
+    /** @param fileName name of file in CWD
+     *  @param id content id of the file, or null if there is none
+     *  @param blobID id of a tracked blob
+     * Checks whether the file holds the contents of blobID. Blobs saved
+     * before ids were pure content hashes are stored under the hash of
+     * their file name and contents, so for those the old style id of
+     * the file is compared too.
+     * @return whether the file holds the contents of the blob */
+    public static boolean holds(String fileName, String id, String blobID) {
+        if (id == null || blobID == null) {
+            return false;
+        }
+        if (id.equals(blobID)) {
+            return true;
+        }
+        return Repo.isNamedBlob(blobID, fileName)
+                && blobID.equals(DirCache.namedID(fileName,
+                        new File(Main.CWD, fileName)));
     }
 
     /** @param fileName name of file in CWD
      * Saves a file currently in CWD to a blob folder into a blob file
-     * also saves file name and id into the repository dictionary */
+     * named by the hash of its contents, unless the same contents are
+     * already saved under another name or in another commit. */
     public static void saveFileToBlobs(String fileName) {
         File fileToBlob = new File(Main.CWD.getPath()
                 + File.separator + fileName);
         if (fileToBlob.exists()) {
-            File blobFile =  new File(Repo.BLOBS.getPath()
-                    + File.separator + contentID(fileName) + ".txt");
-            try {
-                Files.copy(fileToBlob.toPath(), blobFile.toPath(),
-                        StandardCopyOption.REPLACE_EXISTING);
-            } catch (IOException e) {
-                e.printStackTrace();
+            String id = contentID(fileName);
+            if (!exists(id)) {
+                store(fileToBlob, Repo.BLOBS, id);
             }
-            Repo.putBlob(contentID(fileName), fileName);
         }
     }
 
     /** @param id hash of the blob
-     * Removes the file from the blobs folder and removes its entry
-     * in the repository dictionary
+     * Removes the file from the blobs folder.
      */
     public static void removeFileOfBlob(String id) {
-        File blob = new File(Repo.BLOBS.getPath()
-                + File.separator + id + ".txt");
-        if (blob.exists()) {
-            Utils.restrictedDelete(blob);
-            Repo.removeBlob(id);
+        if (looseFile(Repo.BLOBS, id) != null) {
+            deleteLoose(Repo.BLOBS, id);
         }
     }
 
-    /** @param id name of blob
+    /** @param fileName name of the file in CWD
+     *  @param id name of blob
      * Brings the blob with given id into CWD, replacing
      * the current file with that name.
      */
-    public static void bringBlobToCWD(String id) {
-        File blob = new File(Repo.BLOBS.getPath()
-                + File.separator + id + ".txt");
-        if (blob.exists()) {
-            String fileName = Repo.translateBlob(id);
+    public static void bringBlobToCWD(String fileName, String id) {
+        if (exists(id)) {
             File currFile = new File(Main.CWD
                     + File.separator + fileName);
-            try {
-                Files.copy(blob.toPath(), currFile.toPath(),
+            copyTo(id, currFile);
+        }
+    }
+
+    /** @param id hash of the blob
+     *  @param dest file to write the contents to
+     * Writes the contents of the blob into dest. A blob stored loose and
+     * uncompressed is copied by the file system through
+     * FileChannel.transferTo, so its bytes never pass through the JVM;
+     * any other blob is decompressed on the fly rather than read into
+     * memory. */
+    public static void copyTo(String id, File dest) {
+        File dir = dest.getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        try {
+            Files.deleteIfExists(dest.toPath());
+            File loose = looseFile(Repo.BLOBS, id);
+            if (loose != null && loose.getName().endsWith(RAW_SUFFIX)) {
+                transfer(loose, dest);
+                return;
+            }
+            try (InputStream in = openBlob(id)) {
+                Files.copy(in, dest.toPath());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** @param source file to copy
+     *  @param dest file to create
+     * Copies source to dest with FileChannel.transferTo, which lets the
+     * operating system move the bytes itself. */
+    private static void transfer(File source, File dest) throws IOException {
+        try (FileChannel in = FileChannel.open(source.toPath(),
+                StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(dest.toPath(),
+                     StandardOpenOption.CREATE_NEW,
+                     StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long done = 0;
+            while (done < size) {
+                long n = in.transferTo(done, size - done, out);
+                if (n <= 0) {
+                    throw new IOException("short copy of " + source);
+                }
+                done += n;
+            }
+        }
+    }
+
+    /** @param id hash of the blob
+     * Reads the whole contents of the blob.
+     * @return the uncompressed contents */
+    public static byte[] readBlob(String id) {
+        try (InputStream in = openBlob(id)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** @param id hash of the blob
+     * Checks if the blob is stored, loose or in a pack.
+     * @return whether the blob exists */
+    public static boolean exists(String id) {
+        return looseFile(Repo.BLOBS, id) != null || Pack.has(id);
+    }
+
+    /** @param id hash of the blob
+     * Opens the contents of the blob, whether it is
+     * loose in BLOBS or in a pack.
+     * @return stream of the uncompressed contents */
+    static InputStream openBlob(String id) throws IOException {
+        if (looseFile(Repo.BLOBS, id) != null) {
+            return open(Repo.BLOBS, id);
+        }
+        InputStream packed = Pack.open(id);
+        if (packed == null) {
+            throw new FileNotFoundException("no blob " + id);
+        }
+        return packed;
+    }
+
+    /* LOOSE OBJECT FILES */
+
+    /** Suffix of a loose object stored as is. */
+    static final String RAW_SUFFIX = ".txt";
+    /** Suffix of a loose object stored compressed. */
+    static final String COMPRESSED_SUFFIX = ".z";
+    /** First two bytes of a compressed loose object. */
+    private static final byte[] MAGIC = {'G', 'Z'};
+    /** Version of the compressed loose object header. */
+    private static final int VERSION = 1;
+    /** Length of the header of a compressed loose object: magic,
+     * version and the uncompressed size as a long. */
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 8;
+
+    /** @param dir folder holding loose objects
+     *  @param id hash of the object
+     * Finds the file of a loose object in any of its forms.
+     * @return the file, or null if dir holds no such object */
+    static File looseFile(File dir, String id) {
+        File compressed = new File(dir, id + COMPRESSED_SUFFIX);
+        if (compressed.isFile()) {
+            return compressed;
+        }
+        File raw = new File(dir, id + RAW_SUFFIX);
+        if (raw.isFile()) {
+            return raw;
+        }
+        File list = Chunker.listFile(dir, id);
+        if (list.isFile()) {
+            return list;
+        }
+        return null;
+    }
+
+    /** @param source file to store
+     *  @param dir folder holding loose objects
+     *  @param id hash of the object
+     * Stores the contents of source as a loose object in dir,
+     * deflated at Options.compression, or as is at level 0. */
+    static void store(File source, File dir, String id) {
+        try (InputStream in = new FileInputStream(source)) {
+            store(in, source.length(), dir, id);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** @param in stream of the contents to store
+     *  @param size number of bytes in the contents, or -1 if unknown
+     *  @param dir folder holding loose objects
+     *  @param id hash of the object
+     * Stores the contents of in as a loose object in dir, as a list of
+     * chunks if it is large enough for the Chunker. */
+    static void store(InputStream in, long size, File dir, String id)
+        throws IOException {
+        if (Chunker.worthChunking(size)) {
+            Chunker.store(in, dir, id);
+            return;
+        }
+        storeWhole(in, size, dir, id);
+    }
+
+    /** @param in stream of the contents to store
+     *  @param size number of bytes in the contents, or -1 if unknown
+     *  @param dir folder holding loose objects
+     *  @param id hash of the object
+     * Stores the contents of in as one loose object in dir. The object
+     * is written to a temporary file beside it and renamed into place,
+     * so one cut short by a crash is never taken for the whole. */
+    static void storeWhole(InputStream in, long size, File dir, String id)
+        throws IOException {
+        File dest = new File(dir, id + (Options.compression == 0
+                ? RAW_SUFFIX : COMPRESSED_SUFFIX));
+        File temp = new File(dest.getPath() + ".tmp");
+        try {
+            if (Options.compression == 0) {
+                Files.copy(in, temp.toPath(),
                         StandardCopyOption.REPLACE_EXISTING);
-            } catch (IOException e) {
-                e.printStackTrace();
+            } else {
+                writeCompressed(in, size, temp);
             }
+            Files.move(temp.toPath(), dest.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
         }
     }
+
+    /** @param in stream of the contents to store
+     *  @param size number of bytes in the contents, or -1 if unknown
+     *  @param dest file to write
+     * Writes the header of a compressed loose object and the contents
+     * of in, deflated at Options.compression, to dest. */
+    private static void writeCompressed(InputStream in, long size,
+                                        File dest) throws IOException {
+        Deflater deflater = new Deflater(Options.compression);
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(dest))) {
+            out.write(MAGIC);
+            out.write(VERSION);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (size >>> shift));
+            }
+            DeflaterOutputStream deflated =
+                    new DeflaterOutputStream(out, deflater);
+            in.transferTo(deflated);
+            deflated.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** @param dir folder holding loose objects
+     *  @param id hash of the object
+     * Opens the contents of a loose object, decompressing
+     * it if it was stored compressed.
+     * @return stream of the uncompressed contents */
+    static InputStream open(File dir, String id) throws IOException {
+        File file = looseFile(dir, id);
+        if (file == null) {
+            throw new FileNotFoundException("no object " + id);
+        }
+        if (isChunked(file)) {
+            return Chunker.open(file);
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        if (file.getName().endsWith(RAW_SUFFIX)) {
+            return in;
+        }
+        byte[] header = new byte[HEADER_LENGTH];
+        if (in.readNBytes(header, 0, HEADER_LENGTH) != HEADER_LENGTH
+                || header[0] != MAGIC[0] || header[1] != MAGIC[1]
+                || header[2] != VERSION) {
+            in.close();
+            throw new IOException("corrupt object " + id);
+        }
+        return new InflaterInputStream(in);
+    }
+
+    /** @param dir folder holding loose objects
+     *  @param id hash of the object
+     * Returns the uncompressed size of a loose object
+     * from its header, without reading its contents.
+     * @return the size, or -1 if it is unknown */
+    static long looseSize(File dir, String id) {
+        File file = looseFile(dir, id);
+        if (file == null) {
+            return -1;
+        }
+        if (file.getName().endsWith(RAW_SUFFIX)) {
+            return file.length();
+        }
+        if (isChunked(file)) {
+            return Chunker.size(file);
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] header = in.readNBytes(HEADER_LENGTH);
+            if (header.length != HEADER_LENGTH) {
+                return -1;
+            }
+            long size = 0;
+            for (int i = MAGIC.length + 1; i < HEADER_LENGTH; i++) {
+                size = (size << 8) | (header[i] & 0xFF);
+            }
+            return size;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /** @param dir folder holding loose objects
+     *  @param id hash of the object
+     * Deletes the loose object in whichever form it is stored. Its
+     * chunks are left for gc, as other objects may share them. */
+    static void deleteLoose(File dir, String id) {
+        new File(dir, id + COMPRESSED_SUFFIX).delete();
+        new File(dir, id + RAW_SUFFIX).delete();
+        Chunker.listFile(dir, id).delete();
+    }
+
+    /** @param file file of a loose object
+     * @return whether the object is stored as a list of chunks */
+    static boolean isChunked(File file) {
+        return file.getName().endsWith(Chunker.SUFFIX);
+    }
 }
@@ -0,0 +1,213 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/** Stores large files as content-defined chunks. A file of at least
+ *  THRESHOLD bytes is cut where a gear hash of the bytes just read
+ *  matches a mask (FastCDC), so the cuts move with the contents: an edit
+ *  changes only the chunks around it, and every other chunk keeps its id.
+ *  Each chunk is stored once in CHUNKS under the hash of its bytes, and
+ *  the blob itself becomes a list of its chunks:
+ *
+ *  <pre>
+ *  'G' 'C' VERSION  varint chunk count, then in order:
+ *    20-byte chunk id, varint chunk length
+ *  </pre>
+ *
+ *  The list is kept in the place of the loose object, with SUFFIX.
+ *  Chunks and lists are both renamed into place once written whole, so
+ *  a crash never leaves a partial one under its final name.
+ *  @author Eric Yang
+ */
+class Chunker {
+
+    /** Folder that holds the chunks of every chunked object. */
+    static final File CHUNKS = new File(Main.GITLET.getPath()
+            + File.separator + "CHUNKS");
+    /** Suffix of the chunk list of a loose object. */
+    static final String SUFFIX = ".chunks";
+    /** Files at least this long are chunked. */
+    static final long THRESHOLD = 4L << 20;
+    /** Shortest chunk, except for the last one of a file. */
+    static final int MIN_SIZE = 16 << 10;
+    /** Size chunks are cut around. */
+    static final int AVG_SIZE = 64 << 10;
+    /** Longest chunk. */
+    static final int MAX_SIZE = 256 << 10;
+
+    /** First two bytes of a chunk list. */
+    private static final byte[] MAGIC = {'G', 'C'};
+    /** Version of the layout of a chunk list. */
+    private static final int VERSION = 1;
+    /** Mask checked before AVG_SIZE, with two bits more than the 16 of
+     * AVG_SIZE so that short chunks are rare. The top bits of the gear
+     * hash are used since they depend on the last 64 bytes read. */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    /** Mask checked after AVG_SIZE, with two bits less so that long
+     * chunks are rare. */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+    /** Random value of each byte, the same in every repository. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746C6574L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** @param size length of a file
+     * @return whether a file of that length is stored in chunks */
+    static boolean worthChunking(long size) {
+        return size >= THRESHOLD;
+    }
+
+    /** @param dir folder holding loose objects
+     *  @param id hash of the object
+     * @return the chunk list of the object in dir */
+    static File listFile(File dir, String id) {
+        return new File(dir, id + SUFFIX);
+    }
+
+    /** @param in stream of the contents to store
+     *  @param dir folder holding loose objects
+     *  @param id hash of the object
+     * Cuts the contents of in into chunks, stores the ones not stored
+     * yet, and writes the list of them as the object id in dir. */
+    static void store(InputStream in, File dir, String id)
+        throws IOException {
+        CHUNKS.mkdir();
+        InputStream source = new BufferedInputStream(in);
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        long count = 0;
+        byte[] buf = new byte[MAX_SIZE];
+        int length = 0;
+        while (true) {
+            length += source.readNBytes(buf, length, MAX_SIZE - length);
+            if (length == 0) {
+                break;
+            }
+            int cut = cut(buf, length);
+            String chunk = Utils.sha1(Arrays.copyOf(buf, cut));
+            if (Blob.looseFile(CHUNKS, chunk) == null) {
+                Blob.storeWhole(new ByteArrayInputStream(buf, 0, cut),
+                        cut, CHUNKS, chunk);
+            }
+            CommitFormat.writeHash(entries, chunk);
+            CommitFormat.writeVarint(entries, cut);
+            count++;
+            System.arraycopy(buf, cut, buf, 0, length - cut);
+            length -= cut;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(VERSION);
+        CommitFormat.writeVarint(out, count);
+        entries.writeTo(out);
+        Utils.writeContentsAtomic(listFile(dir, id),
+                (Object) out.toByteArray());
+    }
+
+    /** @param buf bytes to cut
+     *  @param length number of bytes in buf
+     * Finds where the first chunk of buf ends. The gear hash is rolled
+     * from MIN_SIZE on and the chunk is cut at the first byte where its
+     * top bits are all zero, with the stricter mask before AVG_SIZE, so
+     * that chunk sizes cluster around AVG_SIZE.
+     * @return the length of the chunk */
+    static int cut(byte[] buf, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int normal = Math.min(AVG_SIZE, length);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[buf[i] & 0xFF];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < length; i++) {
+            hash = (hash << 1) + GEAR[buf[i] & 0xFF];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+    /** @param list chunk list of an object
+     * Opens the contents of a chunked object, opening each chunk
+     * only once the one before it has been read.
+     * @return stream of the contents */
+    static InputStream open(File list) {
+        Iterator<String> chunks = chunks(list).iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return chunks.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return Blob.open(CHUNKS, chunks.next());
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e.getMessage());
+                }
+            }
+        });
+    }
+
+    /** @param list chunk list of an object
+     * @return the length of the contents of the object */
+    static long size(File list) {
+        return read(list, null);
+    }
+
+    /** @param list chunk list of an object
+     * @return the ids of the chunks of the object, in order */
+    static List<String> chunks(File list) {
+        List<String> result = new ArrayList<String>();
+        read(list, result);
+        return result;
+    }
+
+    /** @param list chunk list of an object
+     *  @param into list the chunk ids are added to, or null
+     * Reads a chunk list.
+     * @return the length of the contents of the object */
+    private static long read(File list, List<String> into) {
+        byte[] data = Utils.readContents(list);
+        if (data.length < MAGIC.length + 1
+                || data[0] != MAGIC[0] || data[1] != MAGIC[1]
+                || data[2] != VERSION) {
+            throw Utils.error("Corrupt chunk list %s.", list.getName());
+        }
+        CommitFormat.Reader in = new CommitFormat.Reader(data);
+        in.readRaw(new byte[MAGIC.length + 1], 0, MAGIC.length + 1);
+        long count = in.readVarint();
+        long size = 0;
+        for (long i = 0; i < count; i++) {
+            String chunk = in.readHash();
+            size += in.readVarint();
+            if (into != null) {
+                into.add(chunk);
+            }
+        }
+        return size;
+    }
+}
@@ -1,147 +1,166 @@
 package gitlet;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.Serializable;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.util.Date;
 import java.util.TreeMap;
 
-public class Commit implements Serializable {
+/** An immutable commit. Commits are put together with a Builder,
+ *  written once through the CommitStore and afterwards only ever
+ *  decoded. The snapshot is kept as the id of its root Tree, and files
+ *  are looked up through the trees only when they are asked for. */
+public class Commit {
 
     /** Message associated with given commit. */
-    private String message;
+    private final String message;
     /** ID of the parent of the given commit. */
-    private String parent;
+    private final String parent;
     /** ID of second parent in cases of merge. */
-    private String secondParent;
-    /** File version of commit for persistence. */
-    private File commitFile;
+    private final String secondParent;
     /** TreeMap to store all the tracked files.
      * No .txt for file names as keys and blob
-     * ids as the values. */
-    private TreeMap<String, String> tracked = new TreeMap<String, String>();
-    /** Date object to get the timestamp of commit. */
-    private Date date;
+     * ids as the values. Filled in from tree when
+     * first asked for. */
+    private TreeMap<String, String> tracked;
+    /** ID of the root Tree of the snapshot, written for commits
+     * read from the older layout only once it is needed. */
+    private String tree;
+    /** Milliseconds since the epoch at which the commit was made. */
+    private final long timestamp;
+    /** Offset in seconds from UTC of the zone the commit was made in. */
+    private final int zoneOffset;
     /** Time of commit in desired format as String. */
-    private String time;
+    private final String time;
+    /** SHA1 id of the commit, computed once. */
+    private final String id;
 
-    /** ID to ensure that serialization goes off with no issue. */
-    private static final long serialVersionUID = -520652377646621239L;
+    /** @param mess associated message of commit
+     *  @param par String of id of parent
+     *  @param secPar String of id of second parent
+     *  @param millis time of commit in milliseconds since the epoch
+     *  @param offset zone offset of commit in seconds
+     *  @param root id of the root tree of the snapshot
+     * Initializes a commit, either built by a Builder or
+     * read back by CommitFormat. */
+    Commit(String mess, String par, String secPar, long millis,
+           int offset, String root) {
+        this(mess, par, secPar, millis, offset, root, null);
+    }
 
     /** @param mess associated message of commit
      *  @param par String of id of parent
-     * Initializes a created commit. */
-    public Commit(String mess, String par) {
-        this.parent = par;
-        this.secondParent = null;
-        this.message = mess;
-        this.date = new Date();
-        String formattedTime = String.format("%1$ta %1$tb %1$te "
-                + "%1$tT %1$tY %1$tz", date);
-        this.time = formattedTime;
-        this.commitFile = new File(Repo.COMMITS.getPath()
-                + File.separator + id() + ".txt");
-        writeCommit();
-    }
-
-    /** Initializes the initial commit
-     * after init() is called. */
-    public Commit() {
-        this.message = "initial commit";
-        this.parent = null;
-        this.date = new Date(0);
-        String formattedTime = String.format("%1$ta %1$tb %1$te "
-                + "%1$tT %1$tY %1$tz", date);
-        this.time = formattedTime;
-        this.commitFile = new File(Repo.COMMITS.getPath()
-                + File.separator + id() + ".txt");
-        writeCommit();
+     *  @param secPar String of id of second parent
+     *  @param millis time of commit in milliseconds since the epoch
+     *  @param offset zone offset of commit in seconds
+     *  @param files tracked file names and blob ids
+     * Initializes a commit read back from the older layout, which
+     * listed the tracked files instead of referring to a tree. */
+    Commit(String mess, String par, String secPar, long millis,
+           int offset, TreeMap<String, String> files) {
+        this(mess, par, secPar, millis, offset, null, files);
     }
 
-    /** Returns the SHA1 id of the given commit.
-     * @return String id of commit */
-    public String id() {
+    /** @param mess associated message of commit
+     *  @param par String of id of parent
+     *  @param secPar String of id of second parent
+     *  @param millis time of commit in milliseconds since the epoch
+     *  @param offset zone offset of commit in seconds
+     *  @param root id of the root tree, or null
+     *  @param files tracked file names and blob ids, or null
+     * Initializes a commit from either its tree or its files. */
+    private Commit(String mess, String par, String secPar, long millis,
+                   int offset, String root, TreeMap<String, String> files) {
+        this.message = mess;
+        this.parent = par;
+        this.secondParent = secPar;
+        this.timestamp = millis;
+        this.zoneOffset = offset;
+        this.time = formatTime(millis, offset);
+        this.tree = root;
+        this.tracked = files;
         if (parent == null) {
-            return Utils.sha1(message + time);
+            this.id = Utils.sha1(message + time);
         } else if (secondParent != null) {
-            return Utils.sha1((message  + time
+            this.id = Utils.sha1((message  + time
                     + parent + secondParent));
+        } else {
+            this.id = Utils.sha1(message + time + parent);
         }
-        return Utils.sha1(message + time + parent);
-    }
-
-    /** @param secParent commit id of second parent
-     *  @param given branch name of given branch
-     *  @param current branch name of current branch
-     * Used for updating a second parent to
-     * the given commit, before saving it.
-     */
-    public void updateSecond(String secParent,
-                             String current, String given) {
-        this.message =  "Merged " + given
-                + " into " + current  + ".";
-        this.secondParent = secParent;
-        writeCommit();
-    }
-
-    /** Saves the commit as a file. */
-    public void writeCommit() {
-        try {
-            commitFile.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        Utils.writeObject(commitFile, this);
     }
-    /** Reads and returns the commit from a file format. */
-    public Commit readCommit() {
-        return Utils.readObject(commitFile, Commit.class);
+
+    /** Returns the initial commit made by init(). */
+    public static Commit initial() {
+        return new Builder("initial commit", null).timestamp(0).build();
+    }
+
+    /** @param millis milliseconds since the epoch
+     *  @param offset zone offset in seconds
+     * Formats a timestamp the way log prints it.
+     * @return the formatted time */
+    private static String formatTime(long millis, int offset) {
+        ZonedDateTime when = ZonedDateTime.ofInstant(
+                Instant.ofEpochMilli(millis),
+                ZoneOffset.ofTotalSeconds(offset));
+        return String.format("%1$ta %1$tb %1$te "
+                + "%1$tT %1$tY %1$tz", when);
     }
 
-    /** Gets the tracked blobs HashSet of the given commit.
-     * @return the TreeMap of tracked blobs */
+    /** Returns the SHA1 id of the given commit.
+     * @return String id of commit */
+    public String id() {
+        return id;
+    }
+
+    /** Gets the tracked blobs of the given commit, which
+     * must not be modified. This lists the whole tree, so
+     * single files are better looked up with getBlobHash.
+     * @return the TreeMap of tracked blobs by path */
     public TreeMap<String, String> getTracked() {
-        readCommit();
+        if (tracked == null) {
+            tracked = Tree.flatten(tree);
+        }
         return tracked;
     }
 
-    /** @param fileName name of file to look for blob
-     * Get tracked blob with given fileName.
+    /** Returns the id of the root tree of the commit,
+     * writing the trees of a commit from the older
+     * layout the first time. */
+    public String getTree() {
+        if (tree == null) {
+            tree = Tree.of(tracked);
+        }
+        return tree;
+    }
+
+    /** @param fileName path of file to look for blob
+     * Get tracked blob with given fileName, reading
+     * only the trees on its path.
      * @return the blob id corresponding to file name
      * in the given commit */
     public String getBlobHash(String fileName) {
-        readCommit();
-        return tracked.get(fileName);
+        if (tracked != null) {
+            return tracked.get(fileName);
+        }
+        return Tree.blobAt(tree, fileName);
     }
 
-    /** @param fileName name of file to look for
+    /** @param fileName path of file to look for
      * Checks if a given file exists in commit.
      * @return boolean whether a file with given
      * name is tracked in this commit */
     public boolean fileExists(String fileName) {
-        readCommit();
-        return tracked.containsKey(fileName);
-    }
-
-    /** @param fileName name of file
-     *  @param blob hash of blob
-     * Updates the tracked blobs TreeSet of a commit, should
-     * only be used right after initializing a commit. */
-    public void updateTracked(String fileName, String blob) {
-        readCommit();
-        tracked.put(fileName, blob);
-        writeCommit();
+        return getBlobHash(fileName) != null;
     }
 
     /** Returns the timestamp on the given commit. */
     public String getTime() {
-        readCommit();
         return time;
     }
 
     /** Returns the parent commit of the given commit. */
     public Commit getParent() {
-        readCommit();
         if (parent == null) {
             return null;
         }
@@ -151,26 +170,17 @@ public class Commit implements Serializable {
     /** Returns the parent commit id of the given commit.
      * @return string id of parent commit */
     public String getParentString() {
-        readCommit();
-        if (parent == null) {
-            return null;
-        }
         return parent;
     }
 
     /** Returns the parent commit id of the given commit.
      * @return string id of second parent commit */
     public String getSecParentString() {
-        readCommit();
-        if (secondParent == null) {
-            return null;
-        }
         return secondParent;
     }
 
     /** Returns the second parent commit of the given commit. */
     public Commit getSecondParent() {
-        readCommit();
         if (secondParent == null) {
             return null;
         }
@@ -179,15 +189,104 @@ public class Commit implements Serializable {
 
     /** Returns the message attached to the given commit. */
     public String getMessage() {
-        readCommit();
         return this.message;
     }
 
     /** Returns the date object attached to given commit. */
     public Date getDate() {
-        readCommit();
-        return this.date;
+        return new Date(timestamp);
+    }
+
+    /** Returns the time of the commit in milliseconds since the epoch. */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /** Returns the zone offset of the commit in seconds. */
+    public int getZoneOffset() {
+        return zoneOffset;
+    }
+
+    /** Returns the commit in the layout it is saved in. */
+    byte[] encode() {
+        return CommitFormat.encode(parent, secondParent,
+                timestamp, zoneOffset, message, getTree());
     }
 
+    /** Collects the parts of a new commit so that it can be
+     * created, and written, all at once. */
+    public static class Builder {
+        /** Message of the commit. */
+        private String message;
+        /** ID of the parent. */
+        private String parent;
+        /** ID of the second parent in cases of merge. */
+        private String secondParent;
+        /** Time of commit in milliseconds since the epoch. */
+        private long timestamp = System.currentTimeMillis();
+        /** Blob ids of the files changed from the parent by path,
+         * null for the files no longer tracked. */
+        private TreeMap<String, String> changes =
+                new TreeMap<String, String>();
+
+        /** @param mess associated message of commit
+         *  @param par String of id of parent
+         * Starts a commit with the given message on top of par. */
+        public Builder(String mess, String par) {
+            this.message = mess;
+            this.parent = par;
+        }
+
+        /** @param fileName path of file
+         *  @param blob hash of blob
+         * Tracks the blob under the given file name.
+         * @return this builder */
+        public Builder track(String fileName, String blob) {
+            changes.put(fileName, blob);
+            return this;
+        }
+
+        /** @param fileName path of file
+         * Stops tracking the file the parent tracked.
+         * @return this builder */
+        public Builder untrack(String fileName) {
+            changes.put(fileName, null);
+            return this;
+        }
 
+        /** @param secParent commit id of second parent
+         *  @param current branch name of current branch
+         *  @param given branch name of given branch
+         * Makes this a merge of given into current.
+         * @return this builder */
+        public Builder merge(String secParent, String current,
+                             String given) {
+            this.message = "Merged " + given
+                    + " into " + current + ".";
+            this.secondParent = secParent;
+            return this;
+        }
+
+        /** @param millis milliseconds since the epoch
+         * Sets the time of the commit, now by default.
+         * @return this builder */
+        public Builder timestamp(long millis) {
+            this.timestamp = millis;
+            return this;
+        }
+
+        /** Returns the finished commit, in the local zone, whose
+         * snapshot is the parent's with the changes applied. */
+        public Commit build() {
+            int offset = ZoneId.systemDefault().getRules()
+                    .getOffset(Instant.ofEpochMilli(timestamp))
+                    .getTotalSeconds();
+            String base = null;
+            if (parent != null) {
+                base = Repo.translateCommit(parent).getTree();
+            }
+            return new Commit(message, parent, secondParent,
+                    timestamp, offset, Tree.edit(base, changes));
+        }
+    }
 }
@@ -0,0 +1,322 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.TreeMap;
+
+/** Compact binary encoding of commits, used instead of Java
+ *  serialization. A commit file is laid out as
+ *
+ *  <pre>
+ *  'G' 'C' VERSION FLAGS
+ *  [20-byte parent] [20-byte second parent]    (present per FLAGS)
+ *  varint timestamp (ms)  zigzag varint zone offset (s)
+ *  varint message length, message bytes
+ *  20-byte id of the root Tree
+ *  </pre>
+ *
+ *  Commits of version 1 held the tracked files themselves in place of
+ *  the root tree:
+ *
+ *  <pre>
+ *  varint entry count, then for each tracked file in sorted order:
+ *    varint shared prefix length with the previous name,
+ *    varint suffix length, suffix bytes, 20-byte blob id
+ *  </pre>
+ *
+ *  and are still read, as are commits saved by Java serialization
+ *  before either layout existed.
+ *  @author Eric Yang
+ */
+class CommitFormat {
+
+    /** First two bytes of every encoded commit. */
+    private static final byte[] MAGIC = {'G', 'C'};
+    /** Version of the layout written by encode. */
+    static final int VERSION = 2;
+    /** Version of the layout with the tracked files inline. */
+    static final int FLAT_VERSION = 1;
+    /** Flag set when the commit has a first parent. */
+    private static final int HAS_PARENT = 1;
+    /** Flag set when the commit has a second parent. */
+    private static final int HAS_SECOND_PARENT = 2;
+    /** Number of bytes in a raw SHA-1 hash. */
+    static final int HASH_LENGTH = Utils.UID_LENGTH / 2;
+    /** First two bytes of a Java serialization stream. */
+    private static final byte[] SERIALIZED_MAGIC = {(byte) 0xAC, (byte) 0xED};
+    /** Name commits saved by Java serialization were written under. */
+    private static final String SERIALIZED_CLASS = "gitlet.Commit";
+
+    /** @param file file holding an encoded commit
+     * Reads a commit back from the given file.
+     * @return the decoded commit */
+    static Commit read(File file) {
+        return decode(Utils.readContents(file));
+    }
+
+    /** @param parent id of the first parent, or null
+     *  @param second id of the second parent, or null
+     *  @param timestamp time of commit in milliseconds since the epoch
+     *  @param zoneOffset zone offset of commit in seconds
+     *  @param message commit message
+     *  @param tree id of the root tree
+     * Encodes a commit in the current version of the layout.
+     * @return the encoded bytes */
+    static byte[] encode(String parent, String second, long timestamp,
+                         int zoneOffset, String message, String tree) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(VERSION);
+        int flags = 0;
+        if (parent != null) {
+            flags |= HAS_PARENT;
+        }
+        if (second != null) {
+            flags |= HAS_SECOND_PARENT;
+        }
+        out.write(flags);
+        if (parent != null) {
+            writeHash(out, parent);
+        }
+        if (second != null) {
+            writeHash(out, second);
+        }
+        writeVarint(out, timestamp);
+        writeVarint(out, zigzag(zoneOffset));
+        writeBytes(out, message.getBytes(StandardCharsets.UTF_8));
+        writeHash(out, tree);
+        return out.toByteArray();
+    }
+
+    /** @param data encoded commit
+     * Decodes a commit written by encode, or by Java serialization.
+     * @return the decoded commit */
+    static Commit decode(byte[] data) {
+        if (data.length >= SERIALIZED_MAGIC.length
+                && data[0] == SERIALIZED_MAGIC[0]
+                && data[1] == SERIALIZED_MAGIC[1]) {
+            return decodeSerialized(data);
+        }
+        Reader in = new Reader(data);
+        if (data.length < MAGIC.length + 2
+                || data[0] != MAGIC[0] || data[1] != MAGIC[1]) {
+            throw Utils.error("Not a commit file.");
+        }
+        in.pos = MAGIC.length;
+        int version = in.readByte();
+        if (version != VERSION && version != FLAT_VERSION) {
+            throw Utils.error("Unsupported commit version %d.", version);
+        }
+        int flags = in.readByte();
+        String parent = null;
+        String second = null;
+        if ((flags & HAS_PARENT) != 0) {
+            parent = in.readHash();
+        }
+        if ((flags & HAS_SECOND_PARENT) != 0) {
+            second = in.readHash();
+        }
+        long timestamp = in.readVarint();
+        int zoneOffset = (int) unzigzag(in.readVarint());
+        String message = new String(in.readBytes(),
+                StandardCharsets.UTF_8);
+        if (version == VERSION) {
+            return new Commit(message, parent, second,
+                    timestamp, zoneOffset, in.readHash());
+        }
+        int count = (int) in.readVarint();
+        TreeMap<String, String> tracked = new TreeMap<String, String>();
+        byte[] previous = new byte[0];
+        for (int i = 0; i < count; i++) {
+            int shared = (int) in.readVarint();
+            int suffix = (int) in.readVarint();
+            byte[] name = new byte[shared + suffix];
+            System.arraycopy(previous, 0, name, 0, shared);
+            in.readRaw(name, shared, suffix);
+            tracked.put(new String(name, StandardCharsets.UTF_8),
+                    in.readHash());
+            previous = name;
+        }
+        return new Commit(message, parent, second,
+                timestamp, zoneOffset, tracked);
+    }
+
+    /** @param data commit saved by Java serialization
+     * Decodes a commit saved before commits had a layout of their own.
+     * Its class is read as SerializedCommit, which has the same fields
+     * the old Commit had, and its tracked files are kept as in a commit
+     * of FLAT_VERSION.
+     * @return the decoded commit */
+    private static Commit decodeSerialized(byte[] data) {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(data)) {
+                @Override
+                protected ObjectStreamClass readClassDescriptor()
+                    throws IOException, ClassNotFoundException {
+                    ObjectStreamClass desc = super.readClassDescriptor();
+                    if (desc.getName().equals(SERIALIZED_CLASS)) {
+                        return ObjectStreamClass.lookup(
+                                SerializedCommit.class);
+                    }
+                    return desc;
+                }
+            }) {
+            return ((SerializedCommit) in.readObject()).toCommit();
+        } catch (IOException | ClassNotFoundException
+                 | ClassCastException e) {
+            throw Utils.error("Not a commit file.");
+        }
+    }
+
+    /** @param out stream to write to
+     *  @param hash hex SHA-1 id
+     * Writes the id as raw bytes. */
+    static void writeHash(ByteArrayOutputStream out, String hash) {
+        out.write(Utils.fromHex(hash), 0, HASH_LENGTH);
+    }
+
+    /** @param out stream to write to
+     *  @param bytes bytes to write
+     * Writes the bytes preceded by their length. */
+    static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /** @param out stream to write to
+     *  @param value non-negative value
+     * Writes value seven bits at a time, low bits first. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** @param value signed value
+     * @return value mapped so small magnitudes encode small */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /** @param value value produced by zigzag
+     * @return the original signed value */
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /** The fields of a commit as Java serialization saved them. Only
+     * ever read, never written. */
+    private static class SerializedCommit implements Serializable {
+        /** Message associated with given commit. */
+        private String message;
+        /** ID of the parent of the given commit. */
+        private String parent;
+        /** ID of second parent in cases of merge. */
+        private String secondParent;
+        /** File the commit was saved to. */
+        private File commitFile;
+        /** Tracked file names and blob ids. */
+        private TreeMap<String, String> tracked;
+        /** Date object to get the timestamp of commit. */
+        private Date date;
+        /** Time of commit as log prints it, ending in the zone offset. */
+        private String time;
+
+        /** ID the old Commit was serialized with. */
+        private static final long serialVersionUID = -520652377646621239L;
+
+        /** Returns the commit, in the zone its time was printed in, so
+         * that its id comes out as it was saved under. */
+        Commit toCommit() {
+            String zone = time.substring(time.lastIndexOf(' ') + 1);
+            int sign = zone.charAt(0) == '-' ? -1 : 1;
+            int offset = sign * (Integer.parseInt(zone.substring(1, 3))
+                    * 3600 + Integer.parseInt(zone.substring(3, 5)) * 60);
+            TreeMap<String, String> files = tracked;
+            if (files == null) {
+                files = new TreeMap<String, String>();
+            }
+            return new Commit(message, parent, secondParent,
+                    date.getTime(), offset, files);
+        }
+    }
+
+    /** Cursor over an encoded byte array. */
+    static class Reader {
+        /** Bytes being read. */
+        private final byte[] data;
+        /** Position of the next byte to read. */
+        private int pos;
+
+        /** @param bytes bytes to read
+         * Initializes a reader at the start of bytes. */
+        Reader(byte[] bytes) {
+            this.data = bytes;
+        }
+
+        /** Returns whether every byte has been read. */
+        boolean atEnd() {
+            return pos >= data.length;
+        }
+
+        /** @return the next unsigned byte */
+        int readByte() {
+            if (pos >= data.length) {
+                throw Utils.error("Truncated object data.");
+            }
+            return data[pos++] & 0xFF;
+        }
+
+        /** @return the next varint */
+        long readVarint() {
+            long result = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        /** @return the next length-prefixed byte string */
+        byte[] readBytes() {
+            int length = (int) readVarint();
+            byte[] result = new byte[length];
+            readRaw(result, 0, length);
+            return result;
+        }
+
+        /** @param dest array to fill
+         *  @param off first index of dest to fill
+         *  @param length number of bytes to copy
+         * Copies the next length bytes into dest. */
+        void readRaw(byte[] dest, int off, int length) {
+            if (length < 0 || pos + length > data.length) {
+                throw Utils.error("Truncated object data.");
+            }
+            System.arraycopy(data, pos, dest, off, length);
+            pos += length;
+        }
+
+        /** @return the next raw hash as a hex id */
+        String readHash() {
+            if (pos + HASH_LENGTH > data.length) {
+                throw Utils.error("Truncated object data.");
+            }
+            String result = Utils.toHex(data, pos, HASH_LENGTH);
+            pos += HASH_LENGTH;
+            return result;
+        }
+    }
+}
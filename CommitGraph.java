@@ -0,0 +1,480 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** The commit-graph file, which keeps the parents and generation number
+ *  of every commit in compact int arrays so ancestry questions are
+ *  answered without decoding a single Commit:
+ *
+ *  <pre>
+ *  'G' 'G' 'R' 'F'  int version
+ *  one RECORD_LENGTH record per commit, parents before children:
+ *    20-byte id, int position of the first parent,
+ *    int position of the second parent, int generation, long timestamp
+ *  </pre>
+ *
+ *  A missing parent is stored as NONE. The generation of a root commit
+ *  is 1 and that of any other commit is one more than the largest of
+ *  its parents', so a commit can never be an ancestor of one whose
+ *  generation is not larger. Records are appended as commits are made,
+ *  finding the parents by reading records back from the end of the
+ *  file, where the parents of a new commit nearly always are, so the
+ *  graph is not read in to make a commit. The file is built from the
+ *  CommitStore if it is missing or does not know a commit.
+ *  @author Eric Yang
+ */
+class CommitGraph {
+
+    /** File that holds the graph between commands. */
+    static final File GRAPH_FILE = new File(Repo.REPO.getPath()
+            + File.separator + "commit-graph");
+
+    /** First bytes of the graph file. */
+    private static final byte[] MAGIC = {'G', 'G', 'R', 'F'};
+    /** Version of the layout of GRAPH_FILE. */
+    private static final int VERSION = 1;
+    /** Length of the magic and version at the start of the file. */
+    private static final int HEADER_LENGTH = MAGIC.length + 4;
+    /** Length of the record of one commit. */
+    private static final int RECORD_LENGTH =
+            CommitFormat.HASH_LENGTH + 4 + 4 + 4 + 8;
+    /** Number of records read at a time when looking for parents. */
+    private static final int BLOCK_RECORDS = 256;
+    /** Position stored for a parent that does not exist. */
+    static final int NONE = -1;
+
+    /** Flag of commits reachable from the first tip. */
+    private static final byte PARENT1 = 1;
+    /** Flag of commits reachable from the second tip. */
+    private static final byte PARENT2 = 2;
+    /** Flag of commits below a common ancestor already found. */
+    private static final byte STALE = 4;
+    /** Flag of the common ancestors found. */
+    private static final byte RESULT = 8;
+
+    /** The graph of this repository, once read in. */
+    private static CommitGraph graph;
+
+    /** Position of each commit id. */
+    private final HashMap<String, Integer> positions =
+            new HashMap<String, Integer>();
+    /** Commit id at each position. */
+    private String[] ids = new String[16];
+    /** First parent at each position. */
+    private int[] parent1 = new int[16];
+    /** Second parent at each position. */
+    private int[] parent2 = new int[16];
+    /** Generation number at each position. */
+    private int[] generations = new int[16];
+    /** Commit time at each position. */
+    private long[] timestamps = new long[16];
+    /** Number of commits in the graph. */
+    private int count = 0;
+
+    /** Returns the graph of the repository, reading it in, or building
+     * it if there is no graph file yet. */
+    static CommitGraph get() {
+        if (graph == null) {
+            graph = GRAPH_FILE.isFile() ? read() : build();
+        }
+        return graph;
+    }
+
+    /** @param commitIDs ids of stored commits
+     * Returns the graph of the repository like get(), building it again
+     * from the store if it does not know one of the commits. */
+    static CommitGraph covering(String... commitIDs) {
+        CommitGraph current = get();
+        for (String id : commitIDs) {
+            if (current.position(id) == NONE) {
+                graph = build();
+                return graph;
+            }
+        }
+        return current;
+    }
+
+    /** @param commitIDs ids of commits
+     * Returns the graph like covering(), or null if it cannot be read
+     * or written or still does not know one of the commits, in which
+     * case MergeBase walks the commits themselves. */
+    static CommitGraph usable(String... commitIDs) {
+        CommitGraph current;
+        try {
+            current = covering(commitIDs);
+        } catch (IllegalArgumentException | GitletException e) {
+            return null;
+        }
+        for (String id : commitIDs) {
+            if (current.position(id) == NONE) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    /** @param commit commit just stored
+     * Appends the commit to the graph file. If there is no graph yet it
+     * is left to be built when first needed. If the graph was read in
+     * during this command the commit is added to it as well, and if it
+     * does not know a parent of commit it is built again from the
+     * store; if it was not read in, the file is deleted instead, to be
+     * built when next needed. */
+    static void add(Commit commit) {
+        if (graph == null) {
+            if (GRAPH_FILE.isFile() && !appendRecord(commit)) {
+                GRAPH_FILE.delete();
+            }
+            return;
+        }
+        if (graph.position(commit.id()) != NONE) {
+            return;
+        }
+        int first = graph.position(commit.getParentString());
+        int second = graph.position(commit.getSecParentString());
+        if ((first == NONE && commit.getParentString() != null)
+                || (second == NONE && commit.getSecParentString() != null)) {
+            graph = build();
+            return;
+        }
+        int at = graph.append(commit.id(), first, second,
+                commit.getTimestamp());
+        try (FileOutputStream out = new FileOutputStream(GRAPH_FILE, true)) {
+            out.write(graph.record(at));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** @param commit commit just stored
+     * Appends the record of commit to the graph file without reading
+     * the graph in, reading records BLOCK_RECORDS at a time from the
+     * end of the file until the parents of commit are found.
+     * @return false if the file is damaged or does not know a parent
+     * of commit, true otherwise */
+    private static boolean appendRecord(Commit commit) {
+        byte[] self = Utils.fromHex(commit.id());
+        String[] parents = {commit.getParentString(),
+            commit.getSecParentString()};
+        byte[][] hashes = new byte[parents.length][];
+        int[] found = {NONE, NONE};
+        int generation = 0;
+        int wanted = 0;
+        for (int p = 0; p < parents.length; p++) {
+            if (parents[p] != null) {
+                hashes[p] = Utils.fromHex(parents[p]);
+                wanted++;
+            }
+        }
+        try (RandomAccessFile file = new RandomAccessFile(GRAPH_FILE, "rw")) {
+            long body = file.length() - HEADER_LENGTH;
+            if (body < 0 || body % RECORD_LENGTH != 0) {
+                return false;
+            }
+            byte[] header = new byte[HEADER_LENGTH];
+            file.readFully(header);
+            ByteBuffer head = ByteBuffer.wrap(header);
+            byte[] magic = new byte[MAGIC.length];
+            head.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || head.getInt() != VERSION) {
+                return false;
+            }
+            byte[] block = new byte[BLOCK_RECORDS * RECORD_LENGTH];
+            ByteBuffer records = ByteBuffer.wrap(block);
+            int at = (int) (body / RECORD_LENGTH);
+            while (at > 0 && wanted > 0) {
+                int n = Math.min(BLOCK_RECORDS, at);
+                at -= n;
+                file.seek(HEADER_LENGTH + (long) at * RECORD_LENGTH);
+                file.readFully(block, 0, n * RECORD_LENGTH);
+                for (int i = n - 1; i >= 0; i--) {
+                    int off = i * RECORD_LENGTH;
+                    if (hashAt(block, off, self)) {
+                        return true;
+                    }
+                    for (int p = 0; p < parents.length; p++) {
+                        if (found[p] == NONE && hashes[p] != null
+                                && hashAt(block, off, hashes[p])) {
+                            int parent = records.getInt(off
+                                    + CommitFormat.HASH_LENGTH + 8);
+                            generation = Math.max(generation, parent);
+                            found[p] = at + i;
+                            wanted--;
+                        }
+                    }
+                }
+            }
+            if (wanted > 0) {
+                return false;
+            }
+            file.seek(file.length());
+            file.write(record(commit.id(), found[0], found[1],
+                    generation + 1, commit.getTimestamp()));
+            return true;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** @param block records read from the graph file
+     *  @param off start of a record in block
+     *  @param hash raw id
+     * @return whether the record at off is that of hash */
+    private static boolean hashAt(byte[] block, int off, byte[] hash) {
+        return Arrays.equals(block, off, off + hash.length,
+                hash, 0, hash.length);
+    }
+
+    /** @param id commit id
+     * @return the position of the commit, or NONE if it is unknown */
+    int position(String id) {
+        if (id == null) {
+            return NONE;
+        }
+        Integer at = positions.get(id);
+        return at == null ? NONE : at;
+    }
+
+    /** @param a commit id
+     *  @param b commit id
+     * Checks whether a is b or one of its ancestors, walking down from b
+     * only through commits whose generation is above a's.
+     * @return whether a is reachable from b */
+    boolean isAncestor(String a, String b) {
+        int from = require(a);
+        int to = require(b);
+        int floor = generations[from];
+        boolean[] seen = new boolean[count];
+        ArrayDeque<Integer> stack = new ArrayDeque<Integer>();
+        stack.push(to);
+        seen[to] = true;
+        while (!stack.isEmpty()) {
+            int at = stack.pop();
+            if (at == from) {
+                return true;
+            }
+            for (int parent : new int[] {parent1[at], parent2[at]}) {
+                if (parent != NONE && !seen[parent]
+                        && generations[parent] >= floor) {
+                    seen[parent] = true;
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** @param a commit id
+     *  @param b commit id
+     * Finds the best common ancestor of a and b. Both sides are painted
+     * down the graph in order of decreasing generation; a commit reached
+     * from both is a common ancestor, and everything below it is marked
+     * stale so that only the nearest ones are kept. Among several, as
+     * after a criss-cross merge, the one of highest generation, then
+     * newest, is chosen.
+     * @return the id of the merge base, or null if there is none */
+    String mergeBase(String a, String b) {
+        int first = require(a);
+        int second = require(b);
+        if (first == second) {
+            return a;
+        }
+        byte[] flags = new byte[count];
+        boolean[] queued = new boolean[count];
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(
+                (x, y) -> generations[x] != generations[y]
+                        ? Integer.compare(generations[y], generations[x])
+                        : Integer.compare(y, x));
+        flags[first] = PARENT1;
+        flags[second] = PARENT2;
+        queue.add(first);
+        queue.add(second);
+        queued[first] = true;
+        queued[second] = true;
+        int live = 2;
+        List<Integer> results = new ArrayList<Integer>();
+        while (live > 0) {
+            int at = queue.poll();
+            queued[at] = false;
+            int paint = flags[at] & (PARENT1 | PARENT2 | STALE);
+            if ((paint & STALE) == 0) {
+                live--;
+            }
+            if ((paint & (PARENT1 | PARENT2)) == (PARENT1 | PARENT2)) {
+                if ((flags[at] & RESULT) == 0) {
+                    flags[at] |= RESULT;
+                    results.add(at);
+                }
+                paint |= STALE;
+            }
+            for (int parent : new int[] {parent1[at], parent2[at]}) {
+                if (parent == NONE || (flags[parent] & paint) == paint) {
+                    continue;
+                }
+                boolean wasStale = (flags[parent] & STALE) != 0;
+                flags[parent] |= paint;
+                if (!queued[parent]) {
+                    queued[parent] = true;
+                    queue.add(parent);
+                    if ((flags[parent] & STALE) == 0) {
+                        live++;
+                    }
+                } else if (!wasStale && (flags[parent] & STALE) != 0) {
+                    live--;
+                }
+            }
+        }
+        int best = NONE;
+        for (int at : results) {
+            if ((flags[at] & STALE) == 0 && (best == NONE
+                    || generations[at] > generations[best]
+                    || (generations[at] == generations[best]
+                    && timestamps[at] > timestamps[best]))) {
+                best = at;
+            }
+        }
+        return best == NONE ? null : ids[best];
+    }
+
+    /** @param id commit id
+     * @return the position of the commit, which must be in the graph */
+    private int require(String id) {
+        int at = position(id);
+        if (at == NONE) {
+            throw Utils.error("No commit with that id exists.");
+        }
+        return at;
+    }
+
+    /** @param id commit id
+     *  @param first position of the first parent
+     *  @param second position of the second parent
+     *  @param timestamp commit time
+     * Adds a commit after all the others.
+     * @return its position */
+    private int append(String id, int first, int second, long timestamp) {
+        if (count == ids.length) {
+            int size = count * 2;
+            ids = Arrays.copyOf(ids, size);
+            parent1 = Arrays.copyOf(parent1, size);
+            parent2 = Arrays.copyOf(parent2, size);
+            generations = Arrays.copyOf(generations, size);
+            timestamps = Arrays.copyOf(timestamps, size);
+        }
+        int generation = 0;
+        if (first != NONE) {
+            generation = generations[first];
+        }
+        if (second != NONE) {
+            generation = Math.max(generation, generations[second]);
+        }
+        ids[count] = id;
+        parent1[count] = first;
+        parent2[count] = second;
+        generations[count] = generation + 1;
+        timestamps[count] = timestamp;
+        positions.put(id, count);
+        return count++;
+    }
+
+    /** @param at position of a commit
+     * @return the record of the commit in the graph file */
+    private byte[] record(int at) {
+        return record(ids[at], parent1[at], parent2[at], generations[at],
+                timestamps[at]);
+    }
+
+    /** @param id commit id
+     *  @param first position of the first parent
+     *  @param second position of the second parent
+     *  @param generation generation number of the commit
+     *  @param timestamp commit time
+     * @return the record of the commit in the graph file */
+    private static byte[] record(String id, int first, int second,
+                                 int generation, long timestamp) {
+        return ByteBuffer.allocate(RECORD_LENGTH)
+                .put(Utils.fromHex(id)).putInt(first).putInt(second)
+                .putInt(generation).putLong(timestamp).array();
+    }
+
+    /** Reads the graph file. A record cut short by an interrupted
+     * append is ignored, and a damaged file is built again. */
+    private static CommitGraph read() {
+        ByteBuffer buf = ByteBuffer.wrap(Utils.readContents(GRAPH_FILE));
+        byte[] magic = new byte[MAGIC.length];
+        buf.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || buf.getInt() != VERSION) {
+            return build();
+        }
+        CommitGraph result = new CommitGraph();
+        byte[] hash = new byte[CommitFormat.HASH_LENGTH];
+        while (buf.remaining() >= RECORD_LENGTH) {
+            buf.get(hash);
+            int first = buf.getInt();
+            int second = buf.getInt();
+            buf.getInt();
+            if (first >= result.count || second >= result.count) {
+                return build();
+            }
+            result.append(Utils.toHex(hash, 0, hash.length),
+                    first, second, buf.getLong());
+        }
+        return result;
+    }
+
+    /** Builds the graph of every stored commit, placing each commit
+     * after its parents, and writes it to the graph file. */
+    private static CommitGraph build() {
+        CommitGraph result = new CommitGraph();
+        ArrayDeque<String> stack = new ArrayDeque<String>();
+        for (String id : CommitStore.ids()) {
+            stack.push(id);
+            while (!stack.isEmpty()) {
+                String top = stack.peek();
+                if (result.position(top) != NONE) {
+                    stack.pop();
+                    continue;
+                }
+                Commit commit = Repo.translateCommit(top);
+                String first = commit.getParentString();
+                String second = commit.getSecParentString();
+                boolean ready = true;
+                for (String parent : new String[] {second, first}) {
+                    if (parent != null && result.position(parent) == NONE) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    result.append(top, result.position(first),
+                            result.position(second), commit.getTimestamp());
+                    stack.pop();
+                }
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            for (int at = 0; at < result.count; at++) {
+                out.write(result.record(at));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        Utils.writeContentsAtomic(GRAPH_FILE, (Object) bytes.toByteArray());
+        return result;
+    }
+}
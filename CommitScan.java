@@ -0,0 +1,102 @@
+package gitlet;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/** Visits many stored commits in order, as global-log and building the
+ *  MessageIndex do. With the --parallel option the commits are decoded
+ *  BATCH at a time on a pool of Options.jobs threads and then handed
+ *  over in their original order, so the output is the same as that of
+ *  a plain scan. With --verbose as well, the throughput is reported on
+ *  standard error.
+ *  @author Eric Yang
+ */
+class CommitScan {
+
+    /** Number of commits decoded before they are handed over. */
+    static final int BATCH = 4096;
+
+    /** @param ids ids of the commits to visit
+     *  @param action what to do with each commit, called in the order
+     *  of ids from the calling thread only
+     * Decodes the commits and gives them to action one by one. */
+    static void forEach(List<String> ids, Consumer<Commit> action) {
+        if (!Options.parallel) {
+            for (String id : ids) {
+                action.accept(Repo.translateCommit(id));
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        String[] names = ids.toArray(new String[0]);
+        Commit[] batch = new Commit[Math.min(BATCH, names.length)];
+        ForkJoinPool pool = new ForkJoinPool(Options.jobs);
+        try {
+            for (int from = 0; from < names.length; from += BATCH) {
+                int to = Math.min(from + BATCH, names.length);
+                pool.invoke(new DecodeTask(names, batch, from, from, to));
+                for (int i = from; i < to; i++) {
+                    action.accept(batch[i - from]);
+                    batch[i - from] = null;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        if (!Options.verbose) {
+            return;
+        }
+        long nanos = Math.max(System.nanoTime() - start, 1);
+        System.err.printf("Scanned %d commits in %d ms on %d thread%s"
+                + " (%d commits/s).%n", names.length, nanos / 1000000,
+                Options.jobs, Options.jobs == 1 ? "" : "s",
+                names.length * 1000000000L / nanos);
+    }
+
+    /** Decodes a range of commits, splitting it among the pool. */
+    private static class DecodeTask extends RecursiveAction {
+        /** ID to ensure that serialization goes off with no issue. */
+        private static final long serialVersionUID = -2914370647015583811L;
+        /** Most commits decoded by one task without splitting. */
+        private static final int THRESHOLD = 64;
+        /** Ids of all the commits. */
+        private final String[] names;
+        /** Decoded commits of the batch, filled in by index. */
+        private final Commit[] commits;
+        /** Index in names of the start of the batch. */
+        private final int base;
+        /** First index in names of this task. */
+        private final int from;
+        /** Index in names past the end of this task. */
+        private final int to;
+
+        /** @param n ids of all the commits
+         *  @param c commits of the batch
+         *  @param b index of the start of the batch
+         *  @param lo first index to decode
+         *  @param hi index past the last to decode
+         * Initializes a task decoding names[lo] to names[hi - 1]. */
+        DecodeTask(String[] n, Commit[] c, int b, int lo, int hi) {
+            names = n;
+            commits = c;
+            base = b;
+            from = lo;
+            to = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    commits[i - base] = CommitStore.load(names[i]);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new DecodeTask(names, commits, base, from, mid),
+                    new DecodeTask(names, commits, base, mid, to));
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/** Content-addressed store of commits. Every commit lives in its own
+ *  file under Repo.COMMITS named by its id, or in a Pack once packed,
+ *  and is only read when it is asked for. A small LRU cache keeps the
+ *  commits used most recently so walking history does not read the
+ *  same file twice.
+ *
+ *  Abbreviated ids of loose commits are resolved through ID_INDEX,
+ *  which lists their ids in sorted order like the index of a Pack:
+ *
+ *  <pre>
+ *  'G' 'C' 'I' 'D'  int version  int count
+ *  256 int fanout, entry b the number of ids whose first byte is <= b
+ *  count 20-byte ids
+ *  </pre>
+ *
+ *  The index is memory-mapped and binary searched. A commit put in the
+ *  store only appends its raw id to ID_LOG, which resolve folds into
+ *  the index once it holds COMPACT_AT ids. Either file is built again
+ *  from the COMMITS folder if it is missing or damaged. A commit packed
+ *  since it was listed stays listed, which does no harm since it is
+ *  still stored.
+ *  @author Eric Yang
+ */
+public class CommitStore {
+
+    /** Maximum number of commits kept in memory at once. */
+    static final int CACHE_SIZE = 256;
+
+    /** Most candidates listed for an ambiguous abbreviated id. */
+    static final int MAX_MATCHES = 10;
+
+    /** File listing the ids of the loose commits in sorted order. */
+    static final File ID_INDEX = new File(Repo.REPO.getPath()
+            + File.separator + "COMMIT_IDS");
+    /** File the ids of commits put since ID_INDEX was written are
+     * appended to. */
+    static final File ID_LOG = new File(Repo.REPO.getPath()
+            + File.separator + "COMMIT_IDS_LOG");
+    /** Number of logged ids at which resolve compacts the log. */
+    static final int COMPACT_AT = 1024;
+
+    /** First bytes of ID_INDEX. */
+    private static final byte[] ID_MAGIC = {'G', 'C', 'I', 'D'};
+    /** Version of the layout of ID_INDEX. */
+    private static final int ID_VERSION = 1;
+    /** Number of bytes in a raw id. */
+    private static final int HASH_LENGTH = CommitFormat.HASH_LENGTH;
+
+    /** Recently used commits keyed by id. */
+    private static LruCache<Commit> cache =
+            new LruCache<Commit>(CACHE_SIZE);
+    /** ID_INDEX, mapped into memory once needed. */
+    private static MappedByteBuffer idIndex;
+    /** Number of ids in idIndex. */
+    private static int idCount;
+    /** Ids in ID_LOG, once read. */
+    private static TreeSet<String> loggedIds;
+
+    /** @param id commit id
+     * Returns the file holding the commit with given id.
+     * @return the commit file, which may not exist */
+    static File commitFile(String id) {
+        return new File(Repo.COMMITS.getPath()
+                + File.separator + id + ".txt");
+    }
+
+    /** @param id commit id
+     * Loads the commit with given id, reading only its own file.
+     * @return the commit, or null if there is no such commit */
+    public static Commit get(String id) {
+        if (id == null) {
+            return null;
+        }
+        Commit commit = cache.get(id);
+        if (commit != null) {
+            return commit;
+        }
+        commit = load(id);
+        if (commit != null) {
+            cache.put(id, commit);
+        }
+        return commit;
+    }
+
+    /** @param id commit id
+     * Reads the commit with given id without going through the cache,
+     * so that several threads may load commits at once.
+     * @return the commit, or null if there is no such commit */
+    static Commit load(String id) {
+        File file = commitFile(id);
+        if (file.isFile()) {
+            return CommitFormat.read(file);
+        }
+        byte[] packed = Pack.read(id);
+        if (packed == null) {
+            return null;
+        }
+        return CommitFormat.decode(packed);
+    }
+
+    /** @param id commit id
+     *  @param commit commit object associated with id
+     * Saves the commit to its own file, logs its id and caches it. */
+    public static void put(String id, Commit commit) {
+        Utils.writeContentsAtomic(commitFile(id), (Object) commit.encode());
+        try (FileOutputStream out = new FileOutputStream(ID_LOG, true)) {
+            out.write(Utils.fromHex(id));
+        } catch (IOException e) {
+            throw Utils.error("Could not write %s.", ID_LOG.getName());
+        }
+        if (loggedIds != null) {
+            loggedIds.add(id);
+        }
+        cache.put(id, commit);
+    }
+
+    /** @param id commit id
+     * Checks if a commit with given id is stored.
+     * @return whether the commit exists */
+    public static boolean contains(String id) {
+        return cache.containsKey(id) || commitFile(id).isFile()
+                || Pack.has(id);
+    }
+
+    /** Returns the ids of every stored commit, loose
+     * or packed, in sorted order.
+     * @return list of commit ids */
+    public static List<String> ids() {
+        TreeSet<String> result = Pack.ids(Pack.COMMIT);
+        result.addAll(looseIds());
+        return new ArrayList<String>(result);
+    }
+
+    /** @param prefix full or abbreviated commit id
+     * Resolves an abbreviated commit id with a binary search over
+     * ID_INDEX and one over each pack index.
+     * @return the full id, or null if no commit id starts with prefix */
+    public static String resolve(String prefix) {
+        if (!prefix.matches("[0-9a-f]{1,40}")) {
+            return null;
+        }
+        if (prefix.length() == Utils.UID_LENGTH) {
+            return contains(prefix) ? prefix : null;
+        }
+        TreeSet<String> matches = Pack.matchPrefix(prefix, Pack.COMMIT,
+                MAX_MATCHES + 1);
+        matchLoose(prefix, matches, MAX_MATCHES + 1);
+        if (matches.isEmpty()) {
+            return null;
+        } else if (matches.size() == 1) {
+            return matches.first();
+        }
+        StringBuilder candidates = new StringBuilder();
+        int listed = 0;
+        for (String match : matches) {
+            if (listed++ == MAX_MATCHES) {
+                candidates.append("\n  ...");
+                break;
+            }
+            candidates.append("\n  ").append(match);
+        }
+        throw Utils.error("Commit id %s is ambiguous. It could be:%s",
+                prefix, candidates);
+    }
+
+    /** Deletes ID_INDEX and ID_LOG, so that they are built again from
+     * the commits left when next needed. */
+    static void clearIds() {
+        idIndex = null;
+        loggedIds = null;
+        ID_INDEX.delete();
+        ID_LOG.delete();
+    }
+
+    /** @param prefix hex prefix of an id
+     *  @param into ids found, added to
+     *  @param limit most ids into may hold
+     * Adds the listed loose commits whose ids start with prefix,
+     * found with a binary search in ID_INDEX and a lookup in the log. */
+    private static void matchLoose(String prefix, TreeSet<String> into,
+                                   int limit) {
+        readIds();
+        StringBuilder lowest = new StringBuilder(prefix);
+        while (lowest.length() < Utils.UID_LENGTH) {
+            lowest.append('0');
+        }
+        for (int i = lowerBound(Utils.fromHex(lowest.toString()));
+             i < idCount && into.size() < limit; i++) {
+            String id = idAt(i);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            into.add(id);
+        }
+        for (String id : loggedIds.tailSet(prefix)) {
+            if (!id.startsWith(prefix) || into.size() >= limit) {
+                break;
+            }
+            into.add(id);
+        }
+    }
+
+    /** Maps ID_INDEX and reads ID_LOG the first time they are needed
+     * during a command. The index is written again, with the log folded
+     * in, if the log is long, and built from the COMMITS folder if there
+     * is none or the log holds a partial id. */
+    private static void readIds() {
+        if (idIndex != null) {
+            return;
+        }
+        byte[] log = ID_LOG.isFile() ? Utils.readContents(ID_LOG)
+                : new byte[0];
+        TreeSet<String> logged = new TreeSet<String>();
+        for (int at = 0; at + HASH_LENGTH <= log.length; at += HASH_LENGTH) {
+            logged.add(Utils.toHex(log, at, HASH_LENGTH));
+        }
+        if (!ID_INDEX.isFile() || log.length % HASH_LENGTH != 0) {
+            writeIds(new TreeSet<String>(looseIds()));
+            logged.clear();
+        } else if (logged.size() >= COMPACT_AT) {
+            mapIds();
+            for (int i = 0; i < idCount; i++) {
+                logged.add(idAt(i));
+            }
+            writeIds(logged);
+            logged = new TreeSet<String>();
+        }
+        mapIds();
+        loggedIds = logged;
+    }
+
+    /** @param ids ids to list
+     * Writes ID_INDEX listing ids, then empties ID_LOG. */
+    private static void writeIds(TreeSet<String> ids) {
+        ByteBuffer out = ByteBuffer.allocate(Pack.HEADER_LENGTH
+                + Pack.FANOUT * 4 + ids.size() * HASH_LENGTH);
+        out.put(ID_MAGIC).putInt(ID_VERSION).putInt(ids.size());
+        int[] fanout = new int[Pack.FANOUT];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)]++;
+        }
+        int total = 0;
+        for (int count : fanout) {
+            total += count;
+            out.putInt(total);
+        }
+        for (String id : ids) {
+            out.put(Utils.fromHex(id));
+        }
+        idIndex = null;
+        Utils.writeContentsAtomic(ID_INDEX, (Object) out.array());
+        ID_LOG.delete();
+    }
+
+    /** Maps ID_INDEX into memory. */
+    private static void mapIds() {
+        try (FileChannel ch = FileChannel.open(ID_INDEX.toPath(),
+                StandardOpenOption.READ)) {
+            idIndex = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        byte[] magic = new byte[ID_MAGIC.length];
+        idIndex.get(0, magic);
+        if (!Arrays.equals(magic, ID_MAGIC)
+                || idIndex.getInt(ID_MAGIC.length) != ID_VERSION) {
+            throw Utils.error("Unsupported commit id index.");
+        }
+        idCount = idIndex.getInt(ID_MAGIC.length + 4);
+    }
+
+    /** @param hash raw id
+     * Binary searches ID_INDEX between the fanout entries of the first
+     * byte of hash.
+     * @return the position of the first id not less than hash */
+    private static int lowerBound(byte[] hash) {
+        int fanout = Pack.HEADER_LENGTH;
+        int first = hash[0] & 0xFF;
+        int lo = first == 0 ? 0 : idIndex.getInt(fanout + (first - 1) * 4);
+        int hi = idIndex.getInt(fanout + first * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, hash) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @param i position of an id in ID_INDEX
+     *  @param hash raw id
+     * Compares the id at position i with hash as unsigned bytes.
+     * @return a negative number, zero or a positive number as the
+     * id at i is less than, equal to or greater than hash */
+    private static int compareAt(int i, byte[] hash) {
+        int at = Pack.HEADER_LENGTH + Pack.FANOUT * 4 + i * HASH_LENGTH;
+        for (int k = 0; k < HASH_LENGTH; k++) {
+            int cmp = Integer.compare(idIndex.get(at + k) & 0xFF,
+                    hash[k] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** @param i position of an id in ID_INDEX
+     * @return the id at position i, in hex */
+    private static String idAt(int i) {
+        byte[] hash = new byte[HASH_LENGTH];
+        idIndex.get(Pack.HEADER_LENGTH + Pack.FANOUT * 4
+                + i * HASH_LENGTH, hash);
+        return Utils.toHex(hash, 0, HASH_LENGTH);
+    }
+
+    /** Returns the sorted ids of the commits that are not packed. */
+    private static List<String> looseIds() {
+        List<String> result = new ArrayList<String>();
+        for (String file : Utils.plainFilenamesIn(Repo.COMMITS)) {
+            if (file.endsWith(".txt")) {
+                result.add(file.substring(0, file.length() - 4));
+            }
+        }
+        return result;
+    }
+
+    /** Access ordered map that drops the least recently used
+     * object once it holds more than its capacity. */
+    static class LruCache<V> extends LinkedHashMap<String, V> {
+
+        /** Maximum number of entries. */
+        private final int capacity;
+
+        /** ID to ensure that serialization goes off with no issue. */
+        private static final long serialVersionUID = 1L;
+
+        /** @param max maximum number of entries
+         * Initializes an empty cache. */
+        LruCache(int max) {
+            super(16, 0.75f, true);
+            this.capacity = max;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> e) {
+            return size() > capacity;
+        }
+    }
+}
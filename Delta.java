@@ -0,0 +1,189 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+
+/** Delta encoding of one byte string against another. A delta starts
+ *  with the varint sizes of the base and the result, followed by
+ *  instructions that either copy a range of the base or insert new
+ *  bytes:
+ *
+ *  <pre>
+ *  COPY   varint offset, varint length
+ *  INSERT varint length, bytes
+ *  </pre>
+ *
+ *  Matches are found by indexing every BLOCK-byte block of the base by
+ *  a rolling hash and sliding the same hash over the target.
+ *  @author Eric Yang
+ */
+class Delta {
+
+    /** Instruction copying a range of the base. */
+    private static final int COPY = 0;
+    /** Instruction inserting literal bytes. */
+    private static final int INSERT = 1;
+    /** Length of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+
+    /** @param base bytes the delta is against
+     *  @param target bytes the delta rebuilds
+     * Computes a delta that turns base into target.
+     * @return the encoded delta */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int[] index = indexBlocks(base);
+        int mask = index.length - 1;
+        int power = 1;
+        for (int i = 1; i < BLOCK; i++) {
+            power *= PRIME;
+        }
+        int pending = 0;
+        int pos = 0;
+        int hash = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (pos + BLOCK <= target.length) {
+            int candidate = index[hash & mask] - 1;
+            int length = 0;
+            if (candidate >= 0) {
+                length = matchLength(base, candidate, target, pos);
+            }
+            if (length >= BLOCK) {
+                int back = 0;
+                while (back < pos - pending && candidate - back > 0
+                        && base[candidate - back - 1]
+                        == target[pos - back - 1]) {
+                    back++;
+                }
+                writeInsert(out, target, pending, pos - back - pending);
+                writeCopy(out, candidate - back, length + back);
+                pos += length;
+                pending = pos;
+                if (pos + BLOCK <= target.length) {
+                    hash = hash(target, pos);
+                }
+            } else {
+                if (pos + BLOCK < target.length) {
+                    hash = (hash - target[pos] * power) * PRIME
+                            + target[pos + BLOCK];
+                }
+                pos++;
+            }
+        }
+        writeInsert(out, target, pending, target.length - pending);
+        return out.toByteArray();
+    }
+
+    /** @param base bytes the delta is against
+     *  @param delta delta created against base
+     * Applies a delta to its base.
+     * @return the bytes the delta rebuilds */
+    static byte[] apply(byte[] base, byte[] delta) {
+        CommitFormat.Reader in = new CommitFormat.Reader(delta);
+        long baseSize = in.readVarint();
+        if (baseSize != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+        byte[] result = new byte[(int) in.readVarint()];
+        int pos = 0;
+        while (pos < result.length) {
+            int op = in.readByte();
+            if (op == COPY) {
+                int offset = (int) in.readVarint();
+                int length = (int) in.readVarint();
+                if (offset < 0 || length < 0 || offset + length > base.length
+                        || pos + length > result.length) {
+                    throw Utils.error("Corrupt delta.");
+                }
+                System.arraycopy(base, offset, result, pos, length);
+                pos += length;
+            } else if (op == INSERT) {
+                int length = (int) in.readVarint();
+                if (length < 0 || pos + length > result.length) {
+                    throw Utils.error("Corrupt delta.");
+                }
+                in.readRaw(result, pos, length);
+                pos += length;
+            } else {
+                throw Utils.error("Corrupt delta.");
+            }
+        }
+        return result;
+    }
+
+    /** @param base bytes to index
+     * Builds an open hash table from the hash of every whole block of
+     * base to one plus the offset of that block, 0 meaning empty.
+     * @return the table, whose length is a power of two */
+    private static int[] indexBlocks(byte[] base) {
+        int blocks = base.length / BLOCK;
+        int size = Integer.highestOneBit(Math.max(blocks, 1) * 2);
+        int[] index = new int[Math.max(size, 16)];
+        int mask = index.length - 1;
+        for (int i = blocks - 1; i >= 0; i--) {
+            index[hash(base, i * BLOCK) & mask] = i * BLOCK + 1;
+        }
+        return index;
+    }
+
+    /** @param data bytes to hash
+     *  @param from offset of the block
+     * @return the hash of the BLOCK bytes of data at from */
+    private static int hash(byte[] data, int from) {
+        int h = 0;
+        for (int i = from; i < from + BLOCK; i++) {
+            h = h * PRIME + data[i];
+        }
+        return h;
+    }
+
+    /** @param base bytes of the base
+     *  @param from offset in base
+     *  @param target bytes of the target
+     *  @param pos offset in target
+     * @return the length of the common run at the two offsets */
+    private static int matchLength(byte[] base, int from,
+                                   byte[] target, int pos) {
+        int length = 0;
+        int max = Math.min(base.length - from, target.length - pos);
+        while (length < max && base[from + length] == target[pos + length]) {
+            length++;
+        }
+        return length;
+    }
+
+    /** @param out delta being written
+     *  @param offset offset in the base
+     *  @param length number of bytes to copy
+     * Writes a COPY instruction. */
+    private static void writeCopy(ByteArrayOutputStream out,
+                                  int offset, int length) {
+        out.write(COPY);
+        writeVarint(out, offset);
+        writeVarint(out, length);
+    }
+
+    /** @param out delta being written
+     *  @param target bytes of the target
+     *  @param from offset of the bytes in target
+     *  @param length number of bytes to insert
+     * Writes an INSERT instruction if there is anything to insert. */
+    private static void writeInsert(ByteArrayOutputStream out,
+                                    byte[] target, int from, int length) {
+        if (length <= 0) {
+            return;
+        }
+        out.write(INSERT);
+        writeVarint(out, length);
+        out.write(target, from, length);
+    }
+
+    /** @param out delta being written
+     *  @param value non-negative value
+     * Writes a varint. */
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        CommitFormat.writeVarint(out, value);
+    }
+}
@@ -0,0 +1,231 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Cache of the blob ids of working files, like git's index. For every
+ *  path that was hashed it records the size, modification time and file
+ *  key (inode) the file had, so a later command can reuse the id with a
+ *  single stat instead of reading the file again. Blob ids hash the
+ *  contents alone, so a file and its copies or renames share one.
+ *  Lookups may come from several hashing threads at once.
+ *  @author Eric Yang
+ */
+public class DirCache {
+
+    /** File that holds the cache between commands. */
+    static final File DIRCACHE_FILE = new File(Main.GITLET.getPath()
+            + File.separator + "dircache");
+
+    /** Version of the layout of DIRCACHE_FILE. Caches of version 1 hold
+     * ids that hashed the file name too, and are dropped. */
+    private static final int VERSION = 2;
+
+    /** Entries whose file was modified less than this many milliseconds
+     *  before the cache was written are hashed again, since a change made
+     *  in the same timestamp granule would not show up in the stat data. */
+    private static final long RACY_WINDOW = 2000;
+
+    /** Cached entries keyed by file name. */
+    private static ConcurrentHashMap<String, Entry> entries =
+            new ConcurrentHashMap<String, Entry>();
+    /** Time DIRCACHE_FILE was written, as read in. */
+    private static long writtenAt = 0;
+    /** Whether the cache has been read in for this command. */
+    private static volatile boolean loaded = false;
+    /** Whether the cache changed since it was read in. */
+    private static volatile boolean dirty = false;
+
+    /** @param fileName name of file in CWD
+     *  @param file the file itself, which must exist
+     * Returns the blob id of the file, hashing it only if its
+     * stat data differs from what was recorded for it.
+     * @return the blob id of the file */
+    static String contentID(String fileName, File file) {
+        return id(fileName, file, false);
+    }
+
+    /** @param fileName name of file in CWD
+     *  @param file the file itself, which must exist
+     * Returns the id the file would have had when blob ids hashed the
+     * file name before the contents, which is what the blobs of older
+     * commits are saved under, cached like contentID.
+     * @return the old style id of the file */
+    static String namedID(String fileName, File file) {
+        return id(fileName, file, true);
+    }
+
+    /** @param fileName name of file in CWD
+     *  @param file the file itself, which must exist
+     *  @param named whether to return the old style id
+     * @return the id of the file */
+    private static String id(String fileName, File file, boolean named) {
+        readCache();
+        String prefix = named ? fileName : "";
+        BasicFileAttributes attrs = stat(file);
+        if (attrs == null) {
+            return Utils.sha1File(prefix, file);
+        }
+        long size = attrs.size();
+        long mtime = attrs.lastModifiedTime().toMillis();
+        String key = fileKey(attrs);
+        Entry entry = entries.get(fileName);
+        boolean valid = entry != null && entry.matches(size, mtime, key)
+                && (entry.fresh || mtime + RACY_WINDOW < writtenAt);
+        if (valid) {
+            String known = named ? entry.named : entry.id;
+            if (known != null) {
+                return known;
+            }
+        }
+        String id = Utils.sha1File(prefix, file);
+        Entry hashed = valid ? entry : new Entry(size, mtime, key);
+        hashed.fresh = true;
+        if (named) {
+            hashed.named = id;
+        } else {
+            hashed.id = id;
+        }
+        entries.put(fileName, hashed);
+        dirty = true;
+        return id;
+    }
+
+    /** @param fileName name of file no longer in CWD
+     * Drops the entry of the given file. */
+    static void forget(String fileName) {
+        readCache();
+        if (entries.remove(fileName) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Reads the cache the first time it is needed in a command. A
+     * missing or unreadable cache just starts out empty. */
+    static synchronized void readCache() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!DIRCACHE_FILE.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(
+                        Utils.readContents(DIRCACHE_FILE)))) {
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            writtenAt = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                String key = in.readUTF();
+                Entry entry = new Entry(size, mtime, key);
+                entry.id = orNull(in.readUTF());
+                entry.named = orNull(in.readUTF());
+                entries.put(name, entry);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            entries.clear();
+            writtenAt = 0;
+        }
+    }
+
+    /** Persists the cache if it changed during this command. */
+    static synchronized void writeCache() {
+        if (!dirty) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeUTF(entry.key);
+                out.writeUTF(entry.id == null ? "" : entry.id);
+                out.writeUTF(entry.named == null ? "" : entry.named);
+            }
+            out.close();
+            Utils.writeContentsAtomic(DIRCACHE_FILE,
+                    (Object) bytes.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        dirty = false;
+    }
+
+    /** @param file file to stat
+     * @return the attributes of file, or null if it can't be read */
+    private static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** @param id id as written in DIRCACHE_FILE
+     * @return id, or null if none was written */
+    private static String orNull(String id) {
+        return id.isEmpty() ? null : id;
+    }
+
+    /** @param attrs attributes of a file
+     * @return the file key (device and inode) as a String */
+    private static String fileKey(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? "" : key.toString();
+    }
+
+    /** Stat data and blob id recorded for one path. */
+    private static class Entry {
+        /** Size of the file in bytes. */
+        private final long size;
+        /** Modification time of the file in milliseconds. */
+        private final long mtime;
+        /** File key of the file. */
+        private final String key;
+        /** Blob id of the contents, or null if not known. */
+        private String id;
+        /** Old style id of the name and contents, or null if not known. */
+        private String named;
+        /** Whether the file was hashed during this command. */
+        private boolean fresh;
+
+        /** @param s size
+         *  @param m modification time
+         *  @param k file key
+         * Initializes an entry with no ids yet. */
+        Entry(long s, long m, String k) {
+            size = s;
+            mtime = m;
+            key = k;
+        }
+
+        /** @param s size
+         *  @param m modification time
+         *  @param k file key
+         * @return whether the stat data equals this entry's */
+        boolean matches(long s, long m, String k) {
+            return size == s && mtime == m && key.equals(k);
+        }
+    }
+}
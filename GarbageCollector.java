@@ -0,0 +1,164 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/** Carries out the gc command, which deletes the loose objects nothing
+ *  can reach any more. Commits are marked from the branches, from every
+ *  id in the reflogs and from nothing else; the trees and blobs of the
+ *  marked commits are marked along with them, not going into a tree
+ *  twice, and so are the blobs of the staging index. Every loose commit,
+ *  tree and blob left unmarked is then deleted, as are copies in the
+ *  staging folders that the index no longer names and chunks that no
+ *  chunk list left names. The log of the MessageIndex is compacted, or
+ *  the index is dropped to be built again if commits were deleted.
+ *  Each object is looked at a bounded number of times, so gc takes
+ *  time linear in the number of objects. Packed objects are left
+ *  alone.
+ *  @author Eric Yang
+ */
+class GarbageCollector {
+
+    /** Commits marked. */
+    private final Set<String> commits = new HashSet<String>();
+    /** Trees marked. */
+    private final Set<String> trees = new HashSet<String>();
+    /** Blobs marked. */
+    private final Set<String> blobs = new HashSet<String>();
+    /** Number of bytes deleted. */
+    private long reclaimed = 0;
+
+    /** Collects the garbage of the repository and reports what it
+     * deleted. */
+    static void gc() {
+        new GarbageCollector().run();
+    }
+
+    /** Marks, then sweeps. */
+    private void run() {
+        markCommits();
+        TreeMap<String, String> stage = Staging.getStage();
+        TreeMap<String, String> removal = Staging.getRemoval();
+        blobs.addAll(stage.values());
+        blobs.addAll(removal.values());
+
+        int deadCommits = sweep(Repo.COMMITS, commits,
+                id -> CommitStore.commitFile(id).delete());
+        int deadTrees = sweep(Repo.TREES, trees,
+                id -> Tree.treeFile(id).delete());
+        int deadBlobs = sweep(Repo.BLOBS, blobs, Blob::removeFileOfBlob);
+        int staged = sweep(Staging.STAGE_FOLDER,
+                new HashSet<String>(stage.values()),
+                id -> Blob.deleteLoose(Staging.STAGE_FOLDER, id));
+        staged += sweep(Staging.REMOVE_FOLDER,
+                new HashSet<String>(removal.values()),
+                id -> Blob.deleteLoose(Staging.REMOVE_FOLDER, id));
+
+        Set<String> chunks = new HashSet<String>();
+        for (File dir : new File[] {Repo.BLOBS, Staging.STAGE_FOLDER,
+            Staging.REMOVE_FOLDER}) {
+            markChunks(dir, chunks);
+        }
+        int deadChunks = sweep(Chunker.CHUNKS, chunks,
+                id -> Blob.deleteLoose(Chunker.CHUNKS, id));
+
+        if (deadCommits > 0) {
+            MessageIndex.clear();
+            CommitStore.clearIds();
+            CommitGraph.GRAPH_FILE.delete();
+        } else {
+            MessageIndex.compact();
+        }
+        Utils.message("Removed %d commits, %d trees, %d blobs, %d chunks "
+                + "and %d staged copies, reclaiming %d bytes.",
+                deadCommits, deadTrees, deadBlobs, deadChunks, staged,
+                reclaimed);
+    }
+
+    /** Marks every commit reachable from a branch or a reflog entry,
+     * with its trees and blobs. */
+    private void markCommits() {
+        ArrayDeque<String> stack = new ArrayDeque<String>();
+        Set<String> roots = new HashSet<String>();
+        for (String ref : Refs.names()) {
+            roots.add(Refs.branch(ref));
+            addLogged(ref, roots);
+        }
+        addLogged("HEAD", roots);
+        for (String root : roots) {
+            if (CommitStore.contains(root) && commits.add(root)) {
+                stack.push(root);
+            }
+        }
+        while (!stack.isEmpty()) {
+            Commit commit = Repo.translateCommit(stack.pop());
+            Tree.reach(commit.getTree(), trees, blobs);
+            for (String parent : new String[] {commit.getParentString(),
+                commit.getSecParentString()}) {
+                if (parent != null && commits.add(parent)) {
+                    stack.push(parent);
+                }
+            }
+        }
+    }
+
+    /** @param ref HEAD or the name of a branch
+     *  @param into ids found, added to
+     * Adds every id the reflog of ref holds. */
+    private static void addLogged(String ref, Set<String> into) {
+        for (Reflog.Entry entry : Reflog.tail(ref, Integer.MAX_VALUE)) {
+            into.add(entry.oldID());
+            into.add(entry.newID());
+        }
+        into.remove(Reflog.NONE);
+    }
+
+    /** @param dir folder holding loose objects
+     *  @param into ids of the chunks found, added to
+     * Marks the chunks of every chunked object left in dir. */
+    private static void markChunks(File dir, Set<String> into) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (Blob.isChunked(file)) {
+                into.addAll(Chunker.chunks(file));
+            }
+        }
+    }
+
+    /** @param dir folder holding loose objects
+     *  @param live ids of the objects to keep
+     *  @param delete deletes the object with a given id
+     * Deletes every object in dir whose id is not live, adding the
+     * size of its files to reclaimed. Files not named after an id are
+     * left alone.
+     * @return the number of objects deleted */
+    private int sweep(File dir, Set<String> live, Consumer<String> delete) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        Set<String> dead = new HashSet<String>();
+        for (File file : files) {
+            String name = file.getName();
+            if (!file.isFile() || name.indexOf('.') != Utils.UID_LENGTH) {
+                continue;
+            }
+            String id = name.substring(0, Utils.UID_LENGTH);
+            if (!live.contains(id)) {
+                reclaimed += file.length();
+                dead.add(id);
+            }
+        }
+        for (String id : dead) {
+            delete.accept(id);
+        }
+        return dead.size();
+    }
+}
@@ -1,14 +1,20 @@
 package gitlet;
 
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Eric Yang
@@ -16,61 +22,126 @@ import java.util.List;
 public class Main {
     /** File format of the current working directory. */
     static final File CWD = new File(".");
+    /** Size of the buffer of output(). */
+    private static final int OUTPUT_BUFFER = 1 << 16;
+
     /** File format of the .gitlet directory. */
     static final File GITLET = new File(CWD.getPath()
             + File.separator + ".gitlet");
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
-    public static void main(String... args) {
+     *  [--OPTION=VALUE ...] <COMMAND> <OPERAND> .... */
+    public static void main(String... argv) {
+        String[] args = Options.parse(argv);
+        if (args == null) {
+            return;
+        }
         if (args.length == 0 || args[0].equals("")) {
             Utils.message("Please enter a command.");
             return;
         }
-        if (args[0].equals("init")) {
-            Repo.init();
-        } else if (!GITLET.exists()) {
-            Utils.message("Not in an initialized Gitlet directory.");
-            return;
-        } else if (args[0].equals("add")) {
-            Staging.add(args[1]);
-        } else if (args[0].equals("commit")) {
-            if (args[1] == null || args[1].equals("")) {
-                Utils.message("Please enter a commit message.");
+        try {
+            if (args[0].equals("init")) {
+                Repo.init();
+            } else if (!GITLET.exists()) {
+                Utils.message("Not in an initialized Gitlet directory.");
                 return;
+            } else if (args[0].equals("add")) {
+                List<String> paths = addedPaths(Arrays.asList(args)
+                        .subList(1, args.length));
+                if (paths.size() == 1) {
+                    Staging.add(paths.get(0));
+                } else {
+                    Staging.addAll(paths);
+                }
+            } else if (args[0].equals("commit")) {
+                if (args[1] == null || args[1].equals("")) {
+                    Utils.message("Please enter a commit message.");
+                    return;
+                }
+                Staging.commit(args[1], 0, null, null);
+            } else if (args[0].equals("checkout")) {
+                if (args.length == 2) {
+                    checkout(args[1], null, null);
+                } else if (args.length == 3) {
+                    checkout(args[1], path(args[2]), null);
+                } else if (args.length == 4) {
+                    checkout(args[1], args[2], path(args[3]));
+                }
+            } else if (args[0].equals("log")) {
+                log();
+            } else if (args[0].equals("global-log")) {
+                globalLog();
+            } else if (args[0].equals("rm")) {
+                Staging.rm(path(args[1]));
+            } else if (args[0].equals("find")) {
+                if (args.length == 3) {
+                    find(args[1], args[2]);
+                } else {
+                    find(args[1]);
+                }
+            } else if (args[0].equals("branch")) {
+                Repo.newBranch(args[1]);
+            } else if (args[0].equals("status")) {
+                status();
+            } else if (args[0].equals("rm-branch")) {
+                Repo.removeBranch(args[1]);
+            } else if (args[0].equals("reset")) {
+                reset(args[1]);
+            } else if (args[0].equals("merge")) {
+                merge(args[1]);
+            } else if (args[0].equals("reflog")) {
+                reflog(args.length > 1 ? args[1] : "HEAD",
+                        args.length > 2 ? args[2] : null);
+            } else if (args[0].equals("gc")) {
+                GarbageCollector.gc();
+            } else if (args[0].equals("pack")) {
+                PackWriter.pack();
+            } else if (args[0].equals("add-remote")) {
+                new Remote(args[1], args[2]);
+            } else {
+                System.out.println("No command with that name exists.");
             }
-            Staging.commit(args[1], 0, null, null);
-        } else if (args[0].equals("checkout")) {
-            if (args.length == 2) {
-                checkout(args[1], null, null);
-            } else if (args.length == 3) {
-                checkout(args[1], args[2], null);
-            } else if (args.length == 4) {
-                checkout(args[1], args[2], args[3]);
+            Staging.writeStaging();
+            MessageIndex.writeIndex();
+            DirCache.writeCache();
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /** @param arg file operand as given on the command line
+     * Turns a file operand into the form paths are tracked in.
+     * @return the path relative to CWD with '/' between directories */
+    static String path(String arg) {
+        String result = arg.replace(File.separatorChar, '/');
+        while (result.startsWith("./")) {
+            result = result.substring(2);
+        }
+        while (result.length() > 1 && result.endsWith("/")) {
+            result = result.substring(0, result.length() - 1);
+        }
+        return result;
+    }
+
+    /** @param args file operands of add
+     * Lists the files add was given, replacing a
+     * directory with every file below it.
+     * @return the paths of the files to add */
+    private static List<String> addedPaths(List<String> args) {
+        List<String> result = new ArrayList<String>();
+        for (String arg : args) {
+            String name = path(arg);
+            File file = new File(name);
+            if (!file.isDirectory()) {
+                result.add(name);
+                continue;
+            }
+            for (String below : Utils.workingFiles(file)) {
+                result.add(name.equals(".") ? below : name + "/" + below);
             }
-        } else if (args[0].equals("log")) {
-            log();
-        } else if (args[0].equals("global-log")) {
-            globalLog();
-        } else if (args[0].equals("rm")) {
-            Staging.rm(args[1]);
-        } else if (args[0].equals("find")) {
-            find(args[1]);
-        } else if (args[0].equals("branch")) {
-            Repo.newBranch(args[1]);
-        } else if (args[0].equals("status")) {
-            status();
-        } else if (args[0].equals("rm-branch")) {
-            Repo.removeBranch(args[1]);
-        } else if (args[0].equals("reset")) {
-            reset(args[1]);
-        } else if (args[0].equals("merge")) {
-            merge(args[1]);
-        } else if (args[0].equals("add-remote")) {
-            new Remote(args[1], args[2]);
-        } else {
-            System.out.println("No command with that name exists.");
         }
+        return result;
     }
 
     /**@param first String of first argument
@@ -82,12 +153,12 @@ public class Main {
         if (first.equals("--")) {
             String commitID = Repo.translatePoint("HEAD");
             Commit current = Repo.translateCommit(commitID);
-            if (!current.getTracked().containsKey(second)) {
+            if (!current.fileExists(second)) {
                 Utils.message("File doesn't exist in"
                         + "that commit.");
                 return;
             }
-            Blob.bringBlobToCWD(current.getBlobHash(second));
+            Blob.bringBlobToCWD(second, current.getBlobHash(second));
         } else if (third != null) {
             if (!second.equals("--")) {
                 Utils.message("Incorrect operands.");
@@ -101,14 +172,14 @@ public class Main {
             Commit desiredCommit = Repo.translateCommit(commitID);
             if (desiredCommit.fileExists(third)) {
                 String blobHash = desiredCommit.getBlobHash(third);
-                Blob.bringBlobToCWD(blobHash);
+                Blob.bringBlobToCWD(third, blobHash);
             } else {
                 Utils.message("File does not exist in that commit.");
                 return;
             }
         } else {
             String branchName = first;
-            if (!Repo.getDictPoint().containsKey(branchName)) {
+            if (!Repo.hasBranch(branchName)) {
                 Utils.message("No such branch exists.");
                 return;
             } else if (Repo.currentHeadBranch()
@@ -117,8 +188,7 @@ public class Main {
                         + "the current branch.");
                 return;
             }
-            List<String> files = Utils.plainFilenamesIn
-                    (CWD.getPath());
+            List<String> files = Utils.workingFiles(CWD);
             for (int i = 0; i < files.size(); i++) {
                 if (!Repo.currentHead().fileExists(files.get(i))) {
                     if (Repo.translateCommit
@@ -132,193 +202,247 @@ public class Main {
             }
             Commit newBranch = Repo.translateCommit
                     (Repo.translatePoint(branchName));
+            Commit oldHead = Repo.currentHead();
             Repo.changeBranch(branchName);
-            Repo.changeHead(branchName);
-            checkoutBranch(newBranch);
+            checkoutBranch(oldHead, newBranch);
             Staging.clearStagingArea();
         }
     }
 
-    /** @param newBranch branch/commit to checkout
+    /** @param oldHead commit checked out until now
+     * @param newBranch branch/commit to checkout
      * Checkout external method to save line count in
-     * original checkout method. */
-    private static void checkoutBranch(Commit newBranch) {
-        Iterator<String> fileNames = newBranch.getTracked()
-                .keySet().iterator();
-        while (fileNames.hasNext()) {
-            String currName = fileNames.next();
-            File trackedVersion = new File(Repo.BLOBS.getPath()
-                    + File.separator
-                    + newBranch.getBlobHash(currName) + ".txt");
-            File cwdVersion = new File(Main.CWD.getPath()
-                    + File.separator + currName);
-            try {
-                Files.copy(trackedVersion.toPath(), cwdVersion.toPath(),
-                        StandardCopyOption.REPLACE_EXISTING);
-            } catch (IOException e) {
-                e.printStackTrace();
+     * original checkout method. The files that differ between
+     * the two commits are written or deleted, and every other
+     * file of newBranch is written only if its contents are
+     * not already in CWD. */
+    private static void checkoutBranch(Commit oldHead, Commit newBranch) {
+        TreeMap<String, String> changes =
+                Tree.diff(oldHead.getTree(), newBranch.getTree());
+        applyChanges(changes);
+        TreeMap<String, String> tracked = newBranch.getTracked();
+        TreeMap<String, String> ids = Blob.contentIDs(tracked.keySet());
+        for (Map.Entry<String, String> file : tracked.entrySet()) {
+            if (!changes.containsKey(file.getKey())
+                    && !Blob.holds(file.getKey(), ids.get(file.getKey()),
+                            file.getValue())) {
+                Blob.copyTo(file.getValue(), new File(CWD.getPath()
+                        + File.separator + file.getKey()));
             }
         }
-        List<String> cwdFiles = Utils.plainFilenamesIn(CWD.getPath());
-        for (int i = 0; i < cwdFiles.size(); i++) {
-            if (!Repo.currentHead().fileExists(cwdFiles.get(i))) {
-                Utils.restrictedDelete(cwdFiles.get(i));
+    }
+
+    /** @param changes new blob ids by path, and null for the paths
+     * deleted, as Tree.diff gives them
+     * Brings the working files from one commit to another, deleting
+     * first so that a file may take the place of a directory. */
+    private static void applyChanges(TreeMap<String, String> changes) {
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                Utils.deleteWorkingFile(change.getKey());
             }
         }
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() != null) {
+                Blob.copyTo(change.getValue(), new File(CWD.getPath()
+                        + File.separator + change.getKey()));
+            }
+        }
+    }
+
+    /** Returns a writer that buffers output on its way to System.out,
+     * so commands printing one line per commit do not write each line
+     * separately. It must be flushed, not closed, once done. */
+    static PrintWriter output() {
+        return new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out), OUTPUT_BUFFER));
     }
 
     /** Shows the commits and the corresponding information
      * from the current HEAD commit to the initial commit. */
     public static void log() {
-        String everything = "";
+        PrintWriter out = output();
         Commit current = Repo.translateCommit
                 (Repo.translatePoint("HEAD"));
         while (current != null) {
+            out.print("===" + "\n");
+            out.print("commit " + current.id() + "\n");
             if (current.getSecondParent() != null) {
-                everything += "===" + "\n";
-                everything += "commit " + current.id() + "\n";
-                everything += "Merge: " + current.getParentString()
+                out.print("Merge: " + current.getParentString()
                         .substring(0, 7) + " "
                         + current.getSecParentString()
-                        .substring(0, 7) + "\n";
-                everything += "Date: " + current.getTime() + "\n";
-                everything += current.getMessage();
-                if (!current.getMessage()
-                        .equals("initial commit")) {
-                    everything += "\n\n";
-                }
-            } else {
-                everything += "===" + "\n";
-                everything += "commit " + current.id() + "\n";
-                everything += "Date: " + current.getTime() + "\n";
-                everything += current.getMessage();
-                if (!current.getMessage()
-                        .equals("initial commit")) {
-                    everything += "\n\n";
-                }
+                        .substring(0, 7) + "\n");
+            }
+            out.print("Date: " + current.getTime() + "\n");
+            out.print(current.getMessage());
+            if (!current.getMessage()
+                    .equals("initial commit")) {
+                out.print("\n\n");
             }
             current = current.getParent();
         }
-        System.out.println(everything);
+        out.println();
+        out.flush();
     }
 
     /** Shows the commits and the corresponding information
      * of all commits stored not guaranteed in order. */
     public static void globalLog() {
-        String everything = "";
-        File commitFolder = new File(Repo.COMMITS.getPath());
-        List<String> commits =
-                Utils.plainFilenamesIn(commitFolder);
-        for (int i = 0; i < commits.size(); i++) {
-            String commitWithTxt = commits.get(i);
-            String commitNoTxt = commitWithTxt.
-                    substring(0, commitWithTxt.length() - 4);
-            Commit current = Repo.translateCommit
-                    (commitNoTxt);
-            everything += "===" + "\n";
-            everything += "commit " + current.id() + "\n";
-            everything += "Date: " + current.getTime() + "\n";
-            everything += current.getMessage();
-            if (i < commits.size() - 1) {
-                everything += "\n\n";
+        PrintWriter out = output();
+        boolean[] first = {true};
+        CommitScan.forEach(CommitStore.ids(), current -> {
+            if (!first[0]) {
+                out.print("\n\n");
             }
-        }
-        System.out.println(everything);
+            first[0] = false;
+            out.print("===" + "\n");
+            out.print("commit " + current.id() + "\n");
+            out.print("Date: " + current.getTime() + "\n");
+            out.print(current.getMessage());
+        });
+        out.println();
+        out.flush();
     }
 
     /** @param message to look for in commits
      * Finds all the commits with given commit
      * message and prints the ids of those commits. */
     public static void find(String message) {
-        String everything = "";
-        File commitFolder = new File(Repo.COMMITS.getPath());
-        List<String> commits =
-                Utils.plainFilenamesIn(commitFolder);
-        for (int i = 0; i < commits.size(); i++) {
-            String commitWithTxt = commits.get(i);
-            String commitNoTxt = commitWithTxt.
-                    substring(0, commitWithTxt.length() - 4);
-            Commit current = Repo.translateCommit(commitNoTxt);
-            if (current.getMessage().equals(message)) {
-                everything = current.id() + "\n" + everything;
-            }
+        printFound(MessageIndex.exact(message));
+    }
+
+    /** @param option --word or --prefix
+     *  @param query word, or start of a word, to look for
+     * Finds all the commits whose message contains the word, or a
+     * word starting with the prefix, and prints their ids. */
+    public static void find(String option, String query) {
+        if (option.equals("--word")) {
+            printFound(MessageIndex.word(query));
+        } else if (option.equals("--prefix")) {
+            printFound(MessageIndex.prefix(query));
+        } else {
+            Utils.message("Incorrect operands.");
         }
-        if (everything.equals("")) {
+    }
+
+    /** @param ids sorted ids of the commits found
+     * Prints the ids the way find does, last id first. */
+    private static void printFound(NavigableSet<String> ids) {
+        if (ids.isEmpty()) {
             Utils.message("Found no commit with that message.");
             return;
         }
-        System.out.println(everything);
+        PrintWriter out = output();
+        for (String id : ids.descendingSet()) {
+            out.print(id + "\n");
+        }
+        out.println();
+        out.flush();
+    }
+
+    /** @param ref HEAD or the name of a branch
+     *  @param count most moves to show, or null for all of them
+     * Displays where the ref pointed after each time it moved,
+     * latest first, with the REF@{N} name of each. Only the
+     * end of the reflog is read when count is given. */
+    public static void reflog(String ref, String count) {
+        if (!ref.equals("HEAD") && !Repo.hasBranch(ref)) {
+            Utils.message("No such branch exists.");
+            return;
+        }
+        int limit = Integer.MAX_VALUE;
+        if (count != null) {
+            try {
+                limit = Integer.parseInt(count);
+            } catch (NumberFormatException e) {
+                limit = -1;
+            }
+            if (limit < 0) {
+                Utils.message("Incorrect operands.");
+                return;
+            }
+        }
+        PrintWriter out = output();
+        int n = 0;
+        for (Reflog.Entry entry : Reflog.tail(ref, limit)) {
+            out.print(entry.newID() + " " + ref + "@{" + n + "}: "
+                    + entry.message() + "\n");
+            n++;
+        }
+        out.flush();
     }
 
     /** Displays the existing branches, marking
      * current branch with a *. Also shows which files
      * have been staged for addition or removal. */
     public static void status() {
-        String everything = "=== Branches ===\n";
+        PrintWriter out = output();
+        out.print("=== Branches ===\n");
         String headBranch = Repo.currentHeadBranch();
-        everything += "*" + headBranch + "\n";
-        Iterator<String> branch = Repo.getDictPoint().keySet().iterator();
-        while (branch.hasNext()) {
-            String currBranch = branch.next();
-            if (!currBranch.equals(headBranch)
-                    && !currBranch.equals("HEAD")
-                    && !currBranch.equals("HEAD_BRANCH")) {
-                everything += currBranch + "\n";
+        out.print("*" + headBranch + "\n");
+        for (String currBranch : Repo.branches()) {
+            if (!currBranch.equals(headBranch)) {
+                out.print(currBranch + "\n");
             }
         }
-        everything += "\n" + "=== Staged Files ===\n";
+        out.print("\n" + "=== Staged Files ===\n");
         Iterator<String> stage = Staging.getStage().keySet().iterator();
         while (stage.hasNext()) {
             String currFile = stage.next();
-            everything += currFile + "\n";
+            out.print(currFile + "\n");
         }
-        everything += "\n" + "=== Removed Files ===\n";
+        out.print("\n" + "=== Removed Files ===\n");
         Iterator<String> removal = Staging.getRemoval().keySet().iterator();
         while (removal.hasNext()) {
             String currFile = removal.next();
-            everything += currFile + "\n";
+            out.print(currFile + "\n");
         }
-        everything += "\n" + "=== Modifications Not "
-                + "Staged For Commit ===\n";
-        List<String> cwdFiles = Utils.plainFilenamesIn(CWD);
+        out.print("\n" + "=== Modifications Not "
+                + "Staged For Commit ===\n");
+        List<String> cwdFiles = Utils.workingFiles(CWD);
+        Commit head = Repo.currentHead();
+        TreeSet<String> toHash = new TreeSet<String>(cwdFiles);
+        toHash.addAll(Staging.getStage().keySet());
+        toHash.addAll(head.getTracked().keySet());
+        TreeMap<String, String> ids = Blob.contentIDs(toHash);
         for (int i = 0; i < cwdFiles.size(); i++) {
             String currFileName = cwdFiles.get(i);
             if (Staging.getStage().containsKey(currFileName)) {
-                if (!Blob.contentID(currFileName)
-                        .equals(Staging.translateName(currFileName))) {
-                    everything += currFileName + " (modified)\n";
+                if (!Blob.holds(currFileName, ids.get(currFileName),
+                        Staging.translateName(currFileName))) {
+                    out.print(currFileName + " (modified)\n");
                 }
             } else {
-                Commit head = Repo.currentHead();
                 if (head.fileExists(currFileName)) {
-                    if (Blob.contentID(currFileName) != null) {
-                        if (!Blob.contentID(currFileName)
-                                .equals(head.getBlobHash(currFileName))) {
-                            everything += currFileName + " (modified)\n";
+                    if (ids.get(currFileName) != null) {
+                        if (!Blob.holds(currFileName, ids.get(currFileName),
+                                head.getBlobHash(currFileName))) {
+                            out.print(currFileName + " (modified)\n");
                         }
                     }
                 }
             }
         }
-        everything = statusDeleted(everything);
-        everything += "\n" + "=== Untracked Files ===\n";
-        Commit head = Repo.currentHead();
-        everything = statusUntracked(cwdFiles, head, everything);
-        System.out.println(everything);
+        statusDeleted(ids, out);
+        out.print("\n" + "=== Untracked Files ===\n");
+        statusUntracked(cwdFiles, head, ids, out);
+        out.println();
+        out.flush();
     }
 
-    /** @param everything String output to add onto
+    /** @param ids blob ids of the files status looks at
+     *  @param out writer status prints to
      * Handles deleted files since such will not show
      * up in the List collection from utility function
-     * also in separate function for saving lines.
-     * @return everything String to continue building on */
-    private static String statusDeleted(String everything) {
+     * also in separate function for saving lines. */
+    private static void statusDeleted(TreeMap<String, String> ids,
+                                      PrintWriter out) {
         Iterator<String> stagedFiles = Staging.getStage()
                 .keySet().iterator();
         while (stagedFiles.hasNext()) {
             String currFile = stagedFiles.next();
-            if (Blob.contentID(currFile) == null) {
-                everything += currFile + " (deleted)\n";
+            if (ids.get(currFile) == null) {
+                out.print(currFile + " (deleted)\n");
             }
         }
         Commit currHead = Repo.currentHead();
@@ -328,49 +452,50 @@ public class Main {
             String currFile = trackedFiles.next();
             if (!Staging.getRemoval()
                     .containsKey(currFile)) {
-                if (Blob.contentID((currFile)) == null) {
-                    everything += currFile + " (deleted)\n";
+                if (ids.get(currFile) == null) {
+                    out.print(currFile + " (deleted)\n");
                 }
             }
         }
-        return everything;
     }
 
     /** @param cwdFiles files in cwd
      *  @param head current head commit
-     *  @param everything string to build on for output
+     *  @param ids blob ids of the files status looks at
+     *  @param out writer status prints to
      * External method to carry out Untracked Files part of
-     * status to save line number count.
-     * @return everything string to use as result of status */
-    private static String statusUntracked(List<String> cwdFiles,
-                                          Commit head, String everything) {
+     * status to save line number count. */
+    private static void statusUntracked(List<String> cwdFiles,
+                                        Commit head,
+                                        TreeMap<String, String> ids,
+                                        PrintWriter out) {
         for (int i = 0; i < cwdFiles.size(); i++) {
             String currFileName = cwdFiles.get(i);
             if (!Staging.getStage().containsKey(currFileName)
                     && !head.fileExists(currFileName)) {
-                if (Blob.contentID(currFileName) != null) {
-                    everything += currFileName + "\n";
+                if (ids.get(currFileName) != null) {
+                    out.print(currFileName + "\n");
                 }
             } else if (Staging.getRemoval().containsKey(currFileName)) {
-                if (Staging.getRemoval().get(currFileName)
-                        .equals(Blob.contentID(currFileName))) {
-                    everything += currFileName + "\n";
+                if (Blob.holds(currFileName, ids.get(currFileName),
+                        Staging.getRemoval().get(currFileName))) {
+                    out.print(currFileName + "\n");
                 }
             }
         }
-        return everything;
     }
 
     /** @param id String commit id to reset to
-     * Essentially checkouts a commit. */
+     * Essentially checkouts a commit, writing only the
+     * files that differ from the current commit or were
+     * changed in the working directory. */
     public static void reset(String id) {
         String actualCommit = Repo.equivCommit(id);
         if (actualCommit == null) {
             Utils.message("No commit with that id exists.");
             return;
         }
-        List<String> files = Utils.plainFilenamesIn
-                (CWD.getPath());
+        List<String> files = Utils.workingFiles(CWD);
         for (int i = 0; i < files.size(); i++) {
             if (!Repo.currentHead()
                     .fileExists(files.get(i))) {
@@ -385,26 +510,10 @@ public class Main {
         }
         Commit prevHead = Repo.translateCommit
                 (Repo.translatePoint("HEAD"));
-        Repo.changePointer("HEAD", actualCommit);
-        Repo.changePointer(Repo.translatePoint("HEAD_BRANCH"), actualCommit);
-        Commit currHead = Repo.currentHead();
+        Repo.changePointer(Repo.currentHeadBranch(), actualCommit,
+                "reset: moving to " + id);
         Staging.clearStagingArea();
-        List<String> cwdFiles = Utils.plainFilenamesIn(CWD.getPath());
-        int count = 0;
-        while (count < cwdFiles.size()) {
-            String currCWDFile = cwdFiles.get(count);
-            if (prevHead.fileExists(currCWDFile)) {
-                Utils.restrictedDelete(currCWDFile);
-            }
-            count++;
-        }
-        Iterator<String> headFiles = currHead.getTracked()
-                .keySet().iterator();
-        while (headFiles.hasNext()) {
-            String currTrackFile = headFiles.next();
-            checkout(actualCommit,
-                    "--", currTrackFile);
-        }
+        checkoutBranch(prevHead, Repo.currentHead());
     }
 
     /** Carries out the entire process of
@@ -413,8 +522,7 @@ public class Main {
      * @param branchName name of branch to merge
      * current branch with */
     public static void merge(String branchName) {
-        List<String> files = Utils.plainFilenamesIn
-                (CWD.getPath());
+        List<String> files = Utils.workingFiles(CWD);
         for (int i = 0; i < files.size(); i++) {
             if (!Repo.currentHead().fileExists(files.get(i))) {
                 if (!Staging.getStage().isEmpty()
@@ -430,110 +538,64 @@ public class Main {
                 }
             }
         }
-        if (!Repo.getDictPoint()
-                .containsKey(branchName)) {
+        if (!Repo.hasBranch(branchName)) {
             Utils.message("A branch with that name does not exist.");
             return;
         }
         Commit givenCommit = Repo.translateCommit
                 (Repo.translatePoint(branchName));
-        Commit split = splitPoint(Repo.currentHeadBranch(),
-                branchName);
         Commit curr = Repo.currentHead();
         if (Repo.currentHeadBranch().equals(branchName)) {
             Utils.message("Cannot merge a branch with itself.");
             return;
-        } else if (split.id().equals(givenCommit.id())) {
+        } else if (MergeBase.isAncestor(givenCommit.id(), curr.id())) {
             Utils.message("Given branch is an "
                     + "ancestor of the current branch.");
             return;
-        } else if (split.id().equals(curr.id())) {
+        } else if (MergeBase.isAncestor(curr.id(), givenCommit.id())) {
             checkout(branchName, null, null);
             Utils.message("Current branch fast-forwarded.");
             return;
         }
-        Iterator<String> currKeys = Repo.currentHead().getTracked()
-                .keySet().iterator();
-        Iterator<String> givenKeys = givenCommit.getTracked()
-                .keySet().iterator();
-        ArrayList<String> currFiles = new ArrayList<String>();
-        ArrayList<String> givenFiles = new ArrayList<String>();
-        while (currKeys.hasNext()) {
-            currFiles.add(currKeys.next());
-        }
-        while (givenKeys.hasNext())  {
-            givenFiles.add(givenKeys.next());
-        }
-        mergeTech(currFiles, givenFiles, curr, givenCommit, split, branchName);
+        Commit split = Repo.translateCommit(
+                MergeBase.find(curr.id(), givenCommit.id()));
+        mergeTech(curr, givenCommit, split, branchName);
     }
 
-    /** @param currFiles list of current file names
-     * @param givenFiles list of given file names
-     * @param curr the current commit
+    /** @param curr the current commit
      * @param givenCommit the given commit
      * @param split the common ancestor commit
      * @param branchName name of the given commit branch
      * Carries out the technical work of merge with its
      * cases, separation is more for line conservation.
+     * Only the paths either side changed since the split
+     * point are looked at: a path only the given branch
+     * changed is taken from it, and a path both changed
+     * in different ways is a conflict.
      */
-    private static void mergeTech(ArrayList<String> currFiles,
-                                  ArrayList<String> givenFiles,
-                                  Commit curr, Commit givenCommit,
+    private static void mergeTech(Commit curr, Commit givenCommit,
                                   Commit split, String branchName) {
+        TreeMap<String, String> ours =
+                Tree.diff(split.getTree(), curr.getTree());
+        TreeMap<String, String> theirs =
+                Tree.diff(split.getTree(), givenCommit.getTree());
         Staging.clearStagingArea();
         int flag = 1;
-        for (int i = 0; i < currFiles.size(); i++) {
-            String currFile = currFiles.get(i);
-            String currBlob = curr.getBlobHash(currFile);
-            if (split.fileExists(currFile)) {
-                String splitBlob = split.getBlobHash(currFile);
-                if (givenCommit.fileExists(currFile)) {
-                    String givBlob = givenCommit.getBlobHash(currFile);
-                    if (currBlob.equals(splitBlob)) {
-                        givenFiles.remove(currFile);
-                        if (!givBlob.equals(currBlob)) {
-                            Blob.bringBlobToCWD(givBlob);
-                            Staging.add(currFile);
-                        }
-                    } else if (!splitBlob.equals(currBlob)
-                            && !splitBlob.equals(givBlob)
-                            && !currBlob.equals(givBlob)) {
-                        mergeConflict(currFile, curr, givenCommit);
-                        givenFiles.remove(currFile);
-                        flag = 2;
-                    }
+        for (Map.Entry<String, String> change : theirs.entrySet()) {
+            String file = change.getKey();
+            String givBlob = change.getValue();
+            if (!ours.containsKey(file)) {
+                if (givBlob == null) {
+                    Staging.rm(file);
                 } else {
-                    if (currBlob.equals(splitBlob)) {
-                        Staging.rm(currFile);
-                    } else {
-                        mergeConflict(currFile, curr, null);
-                        flag = 2;
-                    }
-                }
-            } else {
-                if (curr.fileExists(currFile)
-                        && givenCommit.fileExists(currFile)
-                        && !curr.getBlobHash(currFile)
-                        .equals(givenCommit.getBlobHash(currFile))) {
-                    mergeConflict(currFile, curr, givenCommit);
-                    givenFiles.remove(currFile);
-                    flag = 2;
-                }
-            }
-        }
-        for (int i = 0; i < givenFiles.size(); i++)  {
-            String giveFile = givenFiles.get(i);
-            String giveBlob = givenCommit.getBlobHash(giveFile);
-            if (!split.fileExists(giveFile)) {
-                if (!curr.fileExists(giveFile)) {
-                    checkout(Repo.translatePoint(branchName), "--", giveFile);
-                    Staging.add(giveFile);
-                }
-            } else {
-                if (!split.getBlobHash(giveFile).equals(giveBlob)) {
-                    mergeConflict(giveFile, null, givenCommit);
-                    flag = 2;
+                    Blob.copyTo(givBlob, new File(CWD.getPath()
+                            + File.separator + file));
+                    Staging.add(file);
                 }
+            } else if (!Objects.equals(ours.get(file), givBlob)) {
+                mergeConflict(file, ours.get(file) == null ? null : curr,
+                        givBlob == null ? null : givenCommit);
+                flag = 2;
             }
         }
         Staging.commit("MERGE", flag, givenCommit.id(), branchName);
@@ -551,89 +613,18 @@ public class Main {
                 + File.separator + fileName);
         String everything = "<<<<<<< HEAD\n";
         if (curr != null) {
-            File currBlob = new File(Repo.BLOBS.getPath()
-                    + File.separator + curr.getBlobHash(fileName) + ".txt");
-            everything += Utils.readContentsAsString(currBlob);
+            everything += new String(Blob.readBlob(
+                    curr.getBlobHash(fileName)), StandardCharsets.UTF_8);
         }
         everything += "=======\n";
         if (given != null) {
-            File givenBlob = new File(Repo.BLOBS.getPath()
-                    + File.separator + given.getBlobHash(fileName) + ".txt");
-            everything += Utils.readContentsAsString(givenBlob);
+            everything += new String(Blob.readBlob(
+                    given.getBlobHash(fileName)), StandardCharsets.UTF_8);
         }
         everything += ">>>>>>>\n";
+        inCWD.getAbsoluteFile().getParentFile().mkdirs();
         Utils.writeContents(inCWD, everything);
         Staging.add(fileName);
     }
 
-
-    /**@param current string branch currently on
-     * @param given string given branch
-     * Sets up a list of all of given's nodes and parents
-     * then searches through starting from head to find
-     * optimal split point.
-     * @return closest split point to head*/
-    private static Commit splitPoint(String current, String given) {
-        Commit givCommit = Repo.translateCommit(Repo.translatePoint(given));
-        ArrayList<String> givAncestors = new ArrayList<String>();
-        Commit curCommit = Repo.translateCommit(Repo.translatePoint(current));
-        makeList(givCommit, givAncestors);
-        Commit split = search(curCommit, givAncestors);
-        return split;
-    }
-
-    /**@param commit commit to start at, should be head commit
-     * @param possible split points of the head
-     * Does a breadth first search from the given commit
-     * and checks if a current node is in the possible
-     * split points list and returns it as soon as possible.
-     * @return the commit that is the optimal split point */
-    public static Commit search(Commit commit, ArrayList<String> possible) {
-        ArrayList<String> visited = new ArrayList<String>();
-        LinkedList<Commit> queue = new LinkedList<Commit>();
-        ArrayList<String> parents = new ArrayList<String>();
-
-        Commit currCommit = commit;
-        visited.add(currCommit.id());
-        queue.add(currCommit);
-        while (queue.size() != 0) {
-            currCommit = queue.poll();
-            if (possible.contains(currCommit.id())) {
-                return currCommit;
-            }
-            if (currCommit.getParent() != null) {
-                parents.add(currCommit.getParent().id());
-                if (currCommit.getSecondParent() != null) {
-                    parents.add(currCommit.getSecondParent().id());
-                }
-            }
-            while (parents.size() > 0) {
-                if (!visited.contains(parents.get(0))) {
-                    visited.add(parents.get(0));
-                    queue.add(Repo.translateCommit
-                            (parents.get(0)));
-                    parents.remove(0);
-                }
-            }
-        }
-        return null;
-    }
-
-    /**@param commit the commit to find parents of
-     * @param parents list of ids of parent commits
-     * Makes a list of the parents of a given commits. */
-    public static void makeList(Commit commit, ArrayList<String> parents) {
-        if (commit.getParent() == null) {
-            parents.add(commit.id());
-        } else  {
-            parents.add(commit.id());
-            if (commit.getSecondParent() != null) {
-                makeList(commit.getParent(), parents);
-                makeList(commit.getSecondParent(), parents);
-            } else {
-                makeList(commit.getParent(), parents);
-            }
-        }
-    }
-
 }
@@ -0,0 +1,148 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Merge bases and ancestor checks. These are answered by the
+ *  CommitGraph when it can be used, and otherwise by walking the Commit
+ *  objects themselves: both tips are walked down at once, newest commit
+ *  first, remembering in a hash map which tips reach each commit, so
+ *  every commit reachable from the two tips is visited at most twice.
+ *  @author Eric Yang
+ */
+class MergeBase {
+
+    /** Flag of commits reachable from the first tip. */
+    private static final int PARENT1 = 1;
+    /** Flag of commits reachable from the second tip. */
+    private static final int PARENT2 = 2;
+    /** Flag of commits below a common ancestor already found. */
+    private static final int STALE = 4;
+
+    /** @param a commit id
+     *  @param b commit id
+     * Finds the best common ancestor of a and b.
+     * @return the id of the merge base, or null if there is none */
+    static String find(String a, String b) {
+        CommitGraph graph = CommitGraph.usable(a, b);
+        if (graph != null) {
+            return graph.mergeBase(a, b);
+        }
+        return walk(a, b);
+    }
+
+    /** @param a commit id
+     *  @param b commit id
+     * Checks whether a is b or one of its ancestors.
+     * @return whether a is reachable from b */
+    static boolean isAncestor(String a, String b) {
+        CommitGraph graph = CommitGraph.usable(a, b);
+        if (graph != null) {
+            return graph.isAncestor(a, b);
+        }
+        HashSet<String> seen = new HashSet<String>();
+        ArrayDeque<String> stack = new ArrayDeque<String>();
+        stack.push(b);
+        seen.add(b);
+        while (!stack.isEmpty()) {
+            String id = stack.pop();
+            if (id.equals(a)) {
+                return true;
+            }
+            for (String parent : parents(id)) {
+                if (seen.add(parent)) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** @param a commit id
+     *  @param b commit id
+     * Finds the best common ancestor of a and b over the Commit objects.
+     * Both tips are painted down newest first; a commit reached from both
+     * is a common ancestor, and what lies below it is marked stale. The
+     * walk stops once only stale commits are left, so after a criss-cross
+     * merge every nearest common ancestor is found, and the newest one is
+     * chosen.
+     * @return the id of the merge base, or null if there is none */
+    static String walk(String a, String b) {
+        if (a.equals(b)) {
+            return a;
+        }
+        HashMap<String, Integer> flags = new HashMap<String, Integer>();
+        HashMap<String, Long> times = new HashMap<String, Long>();
+        HashSet<String> queued = new HashSet<String>();
+        PriorityQueue<String> queue = new PriorityQueue<String>(
+                (x, y) -> times.get(x).equals(times.get(y))
+                        ? y.compareTo(x)
+                        : Long.compare(times.get(y), times.get(x)));
+        flags.put(a, PARENT1);
+        flags.put(b, PARENT2);
+        for (String tip : new String[] {a, b}) {
+            times.put(tip, Repo.translateCommit(tip).getTimestamp());
+            queue.add(tip);
+            queued.add(tip);
+        }
+        int live = 2;
+        List<String> results = new ArrayList<String>();
+        while (live > 0) {
+            String id = queue.poll();
+            queued.remove(id);
+            int paint = flags.get(id);
+            if ((paint & STALE) == 0) {
+                live--;
+            }
+            if ((paint & (PARENT1 | PARENT2)) == (PARENT1 | PARENT2)) {
+                if ((paint & STALE) == 0) {
+                    results.add(id);
+                }
+                paint |= STALE;
+            }
+            for (String parent : parents(id)) {
+                int old = flags.getOrDefault(parent, 0);
+                if ((old & paint) == paint) {
+                    continue;
+                }
+                flags.put(parent, old | paint);
+                if (queued.add(parent)) {
+                    times.computeIfAbsent(parent, p ->
+                            Repo.translateCommit(p).getTimestamp());
+                    queue.add(parent);
+                    if (((old | paint) & STALE) == 0) {
+                        live++;
+                    }
+                } else if ((old & STALE) == 0 && (paint & STALE) != 0) {
+                    live--;
+                }
+            }
+        }
+        String best = null;
+        for (String id : results) {
+            if ((flags.get(id) & STALE) == 0
+                    && (best == null || times.get(id) > times.get(best))) {
+                best = id;
+            }
+        }
+        return best;
+    }
+
+    /** @param id commit id
+     * @return the ids of the parents of the commit */
+    private static List<String> parents(String id) {
+        Commit commit = Repo.translateCommit(id);
+        List<String> result = new ArrayList<String>(2);
+        if (commit.getParentString() != null) {
+            result.add(commit.getParentString());
+        }
+        if (commit.getSecParentString() != null) {
+            result.add(commit.getSecParentString());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,205 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Inverted index from commit messages to the ids of the commits that
+ *  carry them, so find is one lookup instead of a scan of every commit.
+ *  Each message is indexed whole and by its words, lower-cased, which
+ *  makes word and word-prefix queries possible. A stored commit is
+ *  only appended to LOG_FILE, as its raw id and its length-prefixed
+ *  message, so a commit costs one small write however long the history
+ *  is. The log is folded into the compacted INDEX_FILE by gc, or by a
+ *  lookup once it holds COMPACT_AT commits. The index is built from
+ *  the CommitStore the first time it is needed in a repository made
+ *  before it existed.
+ *  @author Eric Yang
+ */
+public class MessageIndex {
+
+    /** File that holds the compacted index between commands. */
+    static final File INDEX_FILE = new File(Repo.REPO.getPath()
+            + File.separator + "MESSAGE_INDEX.txt");
+    /** File the commits stored since the last compaction are
+     * appended to. */
+    static final File LOG_FILE = new File(Repo.REPO.getPath()
+            + File.separator + "MESSAGE_LOG");
+    /** Number of logged commits at which a lookup compacts the log. */
+    static final int COMPACT_AT = 1024;
+
+    /** The index, once read in. */
+    private static Index index;
+    /** Whether INDEX_FILE must be rewritten and the log emptied. */
+    private static boolean dirty = false;
+
+    /** @param commit commit just stored
+     * Indexes the message of the commit by appending it to the log,
+     * without reading the index. */
+    static void add(Commit commit) {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        CommitFormat.writeHash(record, commit.id());
+        CommitFormat.writeBytes(record,
+                commit.getMessage().getBytes(StandardCharsets.UTF_8));
+        try (FileOutputStream out = new FileOutputStream(LOG_FILE, true)) {
+            record.writeTo(out);
+        } catch (IOException e) {
+            throw Utils.error("Could not write %s.", LOG_FILE.getName());
+        }
+        if (index != null) {
+            index.add(commit.id(), commit.getMessage());
+        }
+    }
+
+    /** @param message whole commit message
+     * @return the ids of the commits with exactly that message, in
+     * sorted order */
+    static NavigableSet<String> exact(String message) {
+        readIndex();
+        return lookup(index.messages, message);
+    }
+
+    /** @param word a word of commit messages
+     * @return the ids of the commits whose message contains the word,
+     * ignoring case, in sorted order */
+    static NavigableSet<String> word(String word) {
+        readIndex();
+        return lookup(index.words, word.toLowerCase(Locale.ROOT));
+    }
+
+    /** @param prefix start of a word of commit messages
+     * @return the ids of the commits whose message contains a word
+     * starting with prefix, ignoring case, in sorted order */
+    static NavigableSet<String> prefix(String prefix) {
+        readIndex();
+        String from = prefix.toLowerCase(Locale.ROOT);
+        TreeSet<String> result = new TreeSet<String>();
+        for (TreeSet<String> ids : index.words.subMap(from,
+                from + Character.MAX_VALUE).values()) {
+            result.addAll(ids);
+        }
+        return result;
+    }
+
+    /** Writes the index back with the log folded in if that is due,
+     * then empties the log. A log left behind by a crash in between is
+     * folded in again, which changes nothing. */
+    static void writeIndex() {
+        if (!dirty) {
+            return;
+        }
+        Utils.writeObjectAtomic(INDEX_FILE, index);
+        LOG_FILE.delete();
+        dirty = false;
+    }
+
+    /** Folds the log into the compacted index now. */
+    static void compact() {
+        readIndex();
+        dirty = true;
+        writeIndex();
+    }
+
+    /** Deletes the index and its log, so that they are built again
+     * from the commits left when next needed. */
+    static void clear() {
+        INDEX_FILE.delete();
+        LOG_FILE.delete();
+        index = null;
+        dirty = false;
+    }
+
+    /** Reads the index the first time it is needed during a command
+     * and adds the commits in the log. If there is no index yet, or the
+     * log was damaged by a crash, the index is built from every stored
+     * commit instead. */
+    private static void readIndex() {
+        if (index != null) {
+            return;
+        }
+        if (INDEX_FILE.exists()) {
+            index = Utils.readObject(INDEX_FILE, Index.class);
+            int logged = readLog(index);
+            if (logged >= 0) {
+                dirty = logged >= COMPACT_AT;
+                return;
+            }
+        }
+        Index built = new Index();
+        CommitScan.forEach(CommitStore.ids(),
+                commit -> built.add(commit.id(), commit.getMessage()));
+        index = built;
+        dirty = true;
+    }
+
+    /** @param into index to add the logged commits to
+     * Reads the log.
+     * @return the number of commits in the log, or -1 if a record of
+     * it is cut short */
+    private static int readLog(Index into) {
+        if (!LOG_FILE.isFile()) {
+            return 0;
+        }
+        CommitFormat.Reader in =
+                new CommitFormat.Reader(Utils.readContents(LOG_FILE));
+        int count = 0;
+        try {
+            while (!in.atEnd()) {
+                String id = in.readHash();
+                into.add(id, new String(in.readBytes(),
+                        StandardCharsets.UTF_8));
+                count++;
+            }
+        } catch (GitletException e) {
+            return -1;
+        }
+        return count;
+    }
+
+    /** @param map messages or words of the index
+     *  @param key key to look up
+     * @return the ids under key, never null */
+    private static NavigableSet<String> lookup(
+            TreeMap<String, TreeSet<String>> map, String key) {
+        TreeSet<String> ids = map.get(key);
+        return ids == null ? new TreeSet<String>() : ids;
+    }
+
+    /** Persistent form of the index. */
+    private static class Index implements Serializable {
+        /** Ids of the commits under each whole message. */
+        private TreeMap<String, TreeSet<String>> messages =
+                new TreeMap<String, TreeSet<String>>();
+        /** Ids of the commits under each lower-cased word. */
+        private TreeMap<String, TreeSet<String>> words =
+                new TreeMap<String, TreeSet<String>>();
+
+        /** ID to ensure that serialization goes off with no issue. */
+        private static final long serialVersionUID = 6052370182214455093L;
+
+        /** @param id id of the commit to index
+         *  @param message message of the commit
+         * Adds the commit under its message and each of its words,
+         * unless it is indexed already. */
+        void add(String id, String message) {
+            if (!messages.computeIfAbsent(message, m -> new TreeSet<String>())
+                    .add(id)) {
+                return;
+            }
+            for (String word : message.toLowerCase(Locale.ROOT)
+                    .split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty()) {
+                    words.computeIfAbsent(word, w -> new TreeSet<String>())
+                            .add(id);
+                }
+            }
+        }
+    }
+}
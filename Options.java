@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.util.zip.Deflater;
+
+/** Global options given before the command, such as
+ *  java gitlet.Main --jobs=4 status or
+ *  java gitlet.Main --parallel global-log.
+ *  @author Eric Yang
+ */
+class Options {
+
+    /** Number of threads used to hash working files. */
+    static int jobs = Runtime.getRuntime().availableProcessors();
+    /** Whether commits scanned by global-log are decoded on a pool of
+     * jobs threads. */
+    static boolean parallel = false;
+    /** Whether commands report how fast they went on standard error. */
+    static boolean verbose = false;
+    /** Deflate level blobs are stored at, from 0 (stored as is)
+     * to 9 (smallest), or -1 for the zlib default. */
+    static int compression = Deflater.DEFAULT_COMPRESSION;
+
+    /** @param args all the arguments given to Main
+     * Reads the leading options out of args.
+     * @return the remaining arguments, starting with the
+     * command, or null if an option was malformed */
+    static String[] parse(String[] args) {
+        int i = 0;
+        while (i < args.length && args[i].startsWith("--")
+                && args[i].length() > 2) {
+            String option = args[i];
+            if (option.startsWith("--jobs=")) {
+                Integer value = parseCount(option.substring(7));
+                if (value == null) {
+                    Utils.message("Invalid value for --jobs.");
+                    return null;
+                }
+                jobs = value;
+            } else if (option.equals("--parallel")) {
+                parallel = true;
+            } else if (option.equals("--verbose")) {
+                verbose = true;
+            } else if (option.startsWith("--compression=")) {
+                Integer value = parseLevel(option.substring(14));
+                if (value == null) {
+                    Utils.message("Invalid value for --compression.");
+                    return null;
+                }
+                compression = value;
+            } else {
+                Utils.message("No option with that name exists.");
+                return null;
+            }
+            i++;
+        }
+        String[] rest = new String[args.length - i];
+        System.arraycopy(args, i, rest, 0, rest.length);
+        return rest;
+    }
+
+    /** @param value text of an option value
+     * @return value as a deflate level, or null if it is not one */
+    private static Integer parseLevel(String value) {
+        try {
+            int result = Integer.parseInt(value);
+            return result >= -1 && result <= 9 ? result : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** @param value text of an option value
+     * @return value as a positive count, or null if it is not one */
+    private static Integer parseCount(String value) {
+        try {
+            int result = Integer.parseInt(value);
+            return result > 0 ? result : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.InflaterInputStream;
+
+/** A packfile in Repo.PACKS together with its index. A pack holds many
+ *  objects in one file:
+ *
+ *  <pre>
+ *  'G' 'P' 'A' 'K'  int version  int count
+ *  count entries, each a type byte then
+ *    COMMIT, TREE or BLOB: the deflated object
+ *    DELTA: varint offset of the base entry, the deflated delta
+ *  20-byte SHA-1 of everything above
+ *  </pre>
+ *
+ *  and its .idx file lists the ids in sorted order:
+ *
+ *  <pre>
+ *  'G' 'I' 'D' 'X'  int version  int count
+ *  256 int fanout, entry b the number of ids whose first byte is <= b
+ *  count 20-byte ids, count type bytes, count long offsets
+ *  20-byte SHA-1 of the pack
+ *  </pre>
+ *
+ *  The index is memory-mapped rather than read in, and an id is found
+ *  with a binary search between the two fanout entries of its first
+ *  byte. Indexes of version 1 have no fanout table and are searched
+ *  whole. The static methods look objects up across every pack.
+ *  @author Eric Yang
+ */
+class Pack {
+
+    /** Type of a commit. */
+    static final int COMMIT = 1;
+    /** Type of a blob. */
+    static final int BLOB = 2;
+    /** Type of an entry stored as a delta against an earlier entry. */
+    static final int DELTA = 3;
+    /** Type of a tree. */
+    static final int TREE = 4;
+
+    /** First bytes of a pack. */
+    static final byte[] PACK_MAGIC = {'G', 'P', 'A', 'K'};
+    /** First bytes of a pack index. */
+    static final byte[] IDX_MAGIC = {'G', 'I', 'D', 'X'};
+    /** Version of the pack layout. */
+    static final int VERSION = 1;
+    /** Version of the index layout written, with a fanout table. */
+    static final int IDX_VERSION = 2;
+    /** Length of the header of a pack and of an index. */
+    static final int HEADER_LENGTH = 12;
+    /** Number of entries of the fanout table. */
+    static final int FANOUT = 256;
+    /** Number of bytes in a raw id. */
+    static final int HASH_LENGTH = CommitFormat.HASH_LENGTH;
+
+    /** Packs of the repository, read in when first needed. */
+    private static List<Pack> packs;
+
+    /** The pack file. */
+    private final File packFile;
+    /** The index, mapped into memory. */
+    private final MappedByteBuffer index;
+    /** Position in index of the fanout table, or -1 if there is none. */
+    private final int fanout;
+    /** Position in index of the sorted raw ids, HASH_LENGTH bytes each. */
+    private final int hashes;
+    /** Position in index of the type of each object. */
+    private final int types;
+    /** Position in index of the offset in the pack of each object. */
+    private final int offsets;
+    /** Number of objects in the pack. */
+    private final int count;
+    /** Open channel to the pack, once something was read from it. */
+    private FileChannel channel;
+
+    /** @param idx index file of the pack
+     * Maps the index of a pack. */
+    Pack(File idx) {
+        String name = idx.getName();
+        packFile = new File(idx.getParentFile(),
+                name.substring(0, name.length() - 4) + ".pack");
+        try (FileChannel ch = FileChannel.open(idx.toPath(),
+                StandardOpenOption.READ)) {
+            index = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        byte[] magic = new byte[IDX_MAGIC.length];
+        index.get(0, magic);
+        int version = index.getInt(IDX_MAGIC.length);
+        if (!Arrays.equals(magic, IDX_MAGIC)
+                || (version != 1 && version != IDX_VERSION)) {
+            throw Utils.error("Unsupported pack index %s.", name);
+        }
+        count = index.getInt(IDX_MAGIC.length + 4);
+        if (version == 1) {
+            fanout = -1;
+            hashes = HEADER_LENGTH;
+        } else {
+            fanout = HEADER_LENGTH;
+            hashes = fanout + FANOUT * 4;
+        }
+        types = hashes + count * HASH_LENGTH;
+        offsets = types + count;
+    }
+
+    /** Returns every pack of the repository. */
+    static synchronized List<Pack> all() {
+        if (packs == null) {
+            packs = new ArrayList<Pack>();
+            List<String> files = Utils.plainFilenamesIn(Repo.PACKS);
+            if (files != null) {
+                for (String file : files) {
+                    if (file.endsWith(".idx")) {
+                        packs.add(new Pack(new File(Repo.PACKS, file)));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Forgets the packs read in so far, after packs were written. */
+    static synchronized void reload() {
+        if (packs != null) {
+            for (Pack pack : packs) {
+                pack.close();
+            }
+        }
+        packs = null;
+    }
+
+    /** @param id object id
+     * Checks if any pack holds the object.
+     * @return whether the object is packed */
+    static boolean has(String id) {
+        return locate(id) != null;
+    }
+
+    /** @param id object id
+     * Opens the contents of a packed object.
+     * @return stream of the contents, or null if no pack holds it */
+    static InputStream open(String id) throws IOException {
+        Pack pack = locate(id);
+        if (pack == null) {
+            return null;
+        }
+        return pack.openAt(pack.offsetOf(pack.find(Utils.fromHex(id))));
+    }
+
+    /** @param id object id
+     * Reads the contents of a packed object.
+     * @return the contents, or null if no pack holds it */
+    static byte[] read(String id) {
+        Pack pack = locate(id);
+        if (pack == null) {
+            return null;
+        }
+        try {
+            return pack.readAt(pack.offsetOf(pack.find(Utils.fromHex(id))));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** @param type COMMIT, TREE or BLOB
+     * Lists the ids of the packed objects of one type.
+     * @return the sorted ids */
+    static TreeSet<String> ids(int type) {
+        TreeSet<String> result = new TreeSet<String>();
+        for (Pack pack : all()) {
+            for (int i = 0; i < pack.count; i++) {
+                if (pack.index.get(pack.types + i) == type) {
+                    result.add(pack.idAt(i));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** @param id object id
+     * @return the pack holding the object, or null */
+    private static Pack locate(String id) {
+        if (id == null || id.length() != Utils.UID_LENGTH) {
+            return null;
+        }
+        byte[] hash = Utils.fromHex(id);
+        for (Pack pack : all()) {
+            if (pack.find(hash) >= 0) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /** @param prefix hex prefix of an id
+     *  @param type COMMIT or BLOB
+     *  @param limit most ids to return
+     * Lists the packed objects of one type whose ids start with prefix,
+     * found with one binary search in each pack.
+     * @return the sorted ids, at most limit of them */
+    static TreeSet<String> matchPrefix(String prefix, int type, int limit) {
+        TreeSet<String> result = new TreeSet<String>();
+        StringBuilder lowest = new StringBuilder(prefix);
+        while (lowest.length() < Utils.UID_LENGTH) {
+            lowest.append('0');
+        }
+        byte[] hash = Utils.fromHex(lowest.toString());
+        for (Pack pack : all()) {
+            for (int i = pack.lowerBound(hash);
+                 i < pack.count && result.size() < limit; i++) {
+                String id = pack.idAt(i);
+                if (!id.startsWith(prefix)) {
+                    break;
+                }
+                if (pack.index.get(pack.types + i) == type) {
+                    result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** @param hash raw id
+     * Finds hash in the sorted ids of this pack.
+     * @return the position of hash, or -1 if it is not in the pack */
+    int find(byte[] hash) {
+        int i = lowerBound(hash);
+        if (i < count && compareAt(i, hash) == 0) {
+            return i;
+        }
+        return -1;
+    }
+
+    /** @param hash raw id
+     * Binary searches the sorted ids of this pack, between the fanout
+     * entries of the first byte of hash.
+     * @return the position of the first id not less than hash */
+    private int lowerBound(byte[] hash) {
+        int lo = 0;
+        int hi = count;
+        if (fanout >= 0) {
+            int first = hash[0] & 0xFF;
+            lo = first == 0 ? 0 : index.getInt(fanout + (first - 1) * 4);
+            hi = index.getInt(fanout + first * 4);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, hash) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @param i position of an id in the index
+     *  @param hash raw id
+     * Compares the id at position i with hash as unsigned bytes.
+     * @return a negative number, zero or a positive number as the
+     * id at i is less than, equal to or greater than hash */
+    private int compareAt(int i, byte[] hash) {
+        int at = hashes + i * HASH_LENGTH;
+        for (int k = 0; k < HASH_LENGTH; k++) {
+            int cmp = Integer.compare(index.get(at + k) & 0xFF,
+                    hash[k] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** @param i position of an id in the index
+     * @return the id at position i, in hex */
+    private String idAt(int i) {
+        byte[] hash = new byte[HASH_LENGTH];
+        index.get(hashes + i * HASH_LENGTH, hash);
+        return Utils.toHex(hash, 0, HASH_LENGTH);
+    }
+
+    /** @param i position of an id in the index
+     * @return the offset in the pack of the object at position i */
+    private long offsetOf(int i) {
+        return index.getLong(offsets + i * 8);
+    }
+
+    /** @param offset offset of an entry in the pack
+     * Opens the contents of the entry, streaming it unless
+     * it is a delta that has to be applied to its base.
+     * @return stream of the contents */
+    InputStream openAt(long offset) throws IOException {
+        int type = readByteAt(offset);
+        if (type == DELTA) {
+            return new ByteArrayInputStream(readAt(offset));
+        }
+        return new InflaterInputStream(
+                new ChannelInputStream(channel(), offset + 1));
+    }
+
+    /** @param offset offset of an entry in the pack
+     * Reads the whole contents of the entry, resolving deltas.
+     * @return the contents */
+    byte[] readAt(long offset) throws IOException {
+        InputStream raw = new ChannelInputStream(channel(), offset);
+        int type = raw.read();
+        long base = type == DELTA ? readVarint(raw) : -1;
+        byte[] contents;
+        try (InputStream in = new InflaterInputStream(raw)) {
+            contents = in.readAllBytes();
+        }
+        if (type != DELTA) {
+            return contents;
+        }
+        return Delta.apply(readAt(base), contents);
+    }
+
+    /** @param offset offset in the pack
+     * @return the byte at offset */
+    private int readByteAt(long offset) throws IOException {
+        return new ChannelInputStream(channel(), offset).read();
+    }
+
+    /** Returns the channel to the pack, opening it if needed. */
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(packFile.toPath(),
+                    StandardOpenOption.READ);
+        }
+        return channel;
+    }
+
+    /** Closes the channel to the pack if it is open. */
+    private synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+
+    /** @param in stream to read from
+     * @return the next varint of in */
+    static long readVarint(InputStream in) throws IOException {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new IOException("truncated pack entry");
+            }
+            result |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
+    /** Stream over a channel from a given position, reading with
+     * positional reads so several streams can share the channel. */
+    private static class ChannelInputStream extends InputStream {
+        /** Channel read from. */
+        private final FileChannel channel;
+        /** Buffer of bytes read ahead. */
+        private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+        /** Position in the channel of the end of buffer. */
+        private long position;
+
+        /** @param ch channel to read
+         *  @param start position to start at
+         * Initializes a stream over ch from start. */
+        ChannelInputStream(FileChannel ch, long start) {
+            channel = ch;
+            position = start;
+            buffer.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        /** @return whether a byte is available after filling buffer */
+        private boolean fill() throws IOException {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                buffer.limit(0);
+                return false;
+            }
+            position += n;
+            buffer.flip();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/** Carries out the pack command, which moves every loose commit, tree
+ *  and blob into a new Pack. Blobs are sorted by path and size and each
+ *  one is tried as a delta against the WINDOW blobs before it, keeping
+ *  the smallest delta if it is worth it. Chunked blobs stay loose, since
+ *  their chunks are already shared between versions.
+ *  @author Eric Yang
+ */
+class PackWriter {
+
+    /** Number of earlier blobs a blob is tried against. */
+    static final int WINDOW = 10;
+    /** Longest chain of deltas allowed before a base. */
+    static final int MAX_DEPTH = 50;
+    /** Blobs larger than this are stored whole without trying deltas. */
+    static final long DELTA_LIMIT = 16L << 20;
+
+    /** Packs all the loose objects and deletes them afterwards. */
+    static void pack() {
+        List<String> commits = new ArrayList<String>();
+        for (String file : Utils.plainFilenamesIn(Repo.COMMITS)) {
+            if (file.endsWith(Blob.RAW_SUFFIX)) {
+                commits.add(file.substring(0,
+                        file.length() - Blob.RAW_SUFFIX.length()));
+            }
+        }
+        List<String> trees = new ArrayList<String>();
+        List<String> looseTrees = Utils.plainFilenamesIn(Repo.TREES);
+        if (looseTrees != null) {
+            for (String file : looseTrees) {
+                if (file.endsWith(Blob.RAW_SUFFIX)) {
+                    trees.add(file.substring(0,
+                            file.length() - Blob.RAW_SUFFIX.length()));
+                }
+            }
+        }
+        TreeSet<String> blobIDs = new TreeSet<String>();
+        for (String file : Utils.plainFilenamesIn(Repo.BLOBS)) {
+            int dot = file.lastIndexOf('.');
+            if (dot == Utils.UID_LENGTH && !file.endsWith(Chunker.SUFFIX)) {
+                blobIDs.add(file.substring(0, dot));
+            }
+        }
+        Map<String, String> names = blobNames();
+        List<Candidate> blobs = new ArrayList<Candidate>();
+        for (String id : blobIDs) {
+            String name = names.get(id);
+            blobs.add(new Candidate(id, name == null ? "" : name,
+                    Blob.looseSize(Repo.BLOBS, id)));
+        }
+        if (commits.isEmpty() && trees.isEmpty() && blobs.isEmpty()) {
+            Utils.message("Nothing to pack.");
+            return;
+        }
+        blobs.sort(Comparator.comparing((Candidate c) -> c.name)
+                .thenComparing(c -> -c.size));
+        Repo.PACKS.mkdir();
+        try {
+            new PackWriter().write(commits, trees, blobs);
+        } catch (IOException e) {
+            throw Utils.error("Could not write pack: %s", e.getMessage());
+        }
+        for (String id : commits) {
+            CommitStore.commitFile(id).delete();
+        }
+        for (String id : trees) {
+            Tree.treeFile(id).delete();
+        }
+        for (Candidate blob : blobs) {
+            Blob.deleteLoose(Repo.BLOBS, blob.id);
+        }
+        Pack.reload();
+    }
+
+    /** Finds a path for each blob from the commits, since blobs are
+     * saved under the hash of their contents alone. Every commit is
+     * compared with its first parent by Tree.diff, so only the paths a
+     * commit changed are visited, and a blob is named after the first
+     * path it was seen at.
+     * @return the path of each blob that a commit tracks, by id */
+    private static Map<String, String> blobNames() {
+        HashMap<String, String> result = new HashMap<String, String>();
+        for (String id : CommitStore.ids()) {
+            Commit commit = Repo.translateCommit(id);
+            String parent = commit.getParentString();
+            String from = parent == null
+                    ? null : Repo.translateCommit(parent).getTree();
+            for (Map.Entry<String, String> change
+                     : Tree.diff(from, commit.getTree()).entrySet()) {
+                if (change.getValue() != null) {
+                    result.putIfAbsent(change.getValue(), change.getKey());
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Ids of the objects written, in pack order. */
+    private final List<String> ids = new ArrayList<String>();
+    /** Types of the objects written, in pack order. */
+    private final List<Integer> types = new ArrayList<Integer>();
+    /** Offsets of the objects written, in pack order. */
+    private final List<Long> offsets = new ArrayList<Long>();
+    /** Number of blobs stored as deltas. */
+    private int deltas = 0;
+
+    /** @param commits ids of the commits to pack
+     *  @param trees ids of the trees to pack
+     *  @param blobs blobs to pack, in window order
+     * Writes the pack and its index. */
+    private void write(List<String> commits, List<String> trees,
+                       List<Candidate> blobs) throws IOException {
+        File temp = new File(Repo.PACKS, "pack.tmp");
+        MessageDigest digest = newDigest();
+        byte[] checksum;
+        Deflater deflater = new Deflater(Options.compression);
+        try (CountingStream out = new CountingStream(
+                new BufferedOutputStream(new FileOutputStream(temp)),
+                digest)) {
+            out.write(Pack.PACK_MAGIC);
+            out.write(ByteBuffer.allocate(8).putInt(Pack.VERSION)
+                    .putInt(commits.size() + trees.size() + blobs.size())
+                    .array());
+            for (String id : commits) {
+                add(id, Pack.COMMIT, out.count);
+                out.write(Pack.COMMIT);
+                deflate(out, deflater,
+                        Utils.readContents(CommitStore.commitFile(id)));
+            }
+            for (String id : trees) {
+                add(id, Pack.TREE, out.count);
+                out.write(Pack.TREE);
+                deflate(out, deflater,
+                        Utils.readContents(Tree.treeFile(id)));
+            }
+            ArrayDeque<Candidate> window = new ArrayDeque<Candidate>();
+            for (Candidate blob : blobs) {
+                add(blob.id, Pack.BLOB, out.count);
+                blob.offset = out.count;
+                if (blob.size > DELTA_LIMIT) {
+                    out.write(Pack.BLOB);
+                    try (InputStream in = Blob.open(Repo.BLOBS, blob.id)) {
+                        deflate(out, deflater, in);
+                    }
+                    continue;
+                }
+                try (InputStream in = Blob.open(Repo.BLOBS, blob.id)) {
+                    blob.data = in.readAllBytes();
+                }
+                writeBlob(out, deflater, blob, window);
+                window.addLast(blob);
+                if (window.size() > WINDOW) {
+                    window.removeFirst().data = null;
+                }
+            }
+            checksum = digest.digest();
+            out.write(checksum);
+        } finally {
+            deflater.end();
+        }
+        String name = "pack-" + Utils.toHex(checksum, 0, checksum.length);
+        Files.move(temp.toPath(), new File(Repo.PACKS, name + ".pack")
+                .toPath(), StandardCopyOption.ATOMIC_MOVE);
+        Utils.writeContentsAtomic(new File(Repo.PACKS, name + ".idx"),
+                (Object) index(checksum));
+        Utils.message("Packed %d objects, %d as deltas.",
+                ids.size(), deltas);
+    }
+
+    /** @param out pack being written
+     *  @param deflater deflater to reuse
+     *  @param blob blob to write, with its data read in
+     *  @param window blobs tried as bases
+     * Writes a blob as the smallest worthwhile delta against
+     * a blob of the window, or whole if there is none. */
+    private void writeBlob(CountingStream out, Deflater deflater,
+                           Candidate blob, ArrayDeque<Candidate> window)
+        throws IOException {
+        Candidate base = null;
+        byte[] best = null;
+        for (Candidate other : window) {
+            if (other.depth >= MAX_DEPTH) {
+                continue;
+            }
+            byte[] delta = Delta.create(other.data, blob.data);
+            if (delta.length < blob.data.length / 2
+                    && (best == null || delta.length < best.length)) {
+                best = delta;
+                base = other;
+            }
+        }
+        if (base == null) {
+            out.write(Pack.BLOB);
+            deflate(out, deflater, blob.data);
+            return;
+        }
+        out.write(Pack.DELTA);
+        ByteArrayOutputStream offset = new ByteArrayOutputStream();
+        CommitFormat.writeVarint(offset, base.offset);
+        out.write(offset.toByteArray());
+        deflate(out, deflater, best);
+        blob.depth = base.depth + 1;
+        deltas++;
+    }
+
+    /** @param id object id
+     *  @param type object type
+     *  @param offset offset of the entry
+     * Records an entry of the pack for its index. */
+    private void add(String id, int type, long offset) {
+        ids.add(id);
+        types.add(type);
+        offsets.add(offset);
+    }
+
+    /** @param checksum checksum of the pack
+     * Builds the index of the entries written.
+     * @return the contents of the index */
+    private byte[] index(byte[] checksum) {
+        Integer[] order = new Integer[ids.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(ids::get));
+        int[] fanout = new int[Pack.FANOUT];
+        byte[][] hashes = new byte[order.length][];
+        for (int k = 0; k < order.length; k++) {
+            hashes[k] = Utils.fromHex(ids.get(order[k]));
+            fanout[hashes[k][0] & 0xFF]++;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(Pack.HEADER_LENGTH
+                + Pack.FANOUT * 4
+                + order.length * (Pack.HASH_LENGTH + 1 + 8)
+                + checksum.length);
+        buf.put(Pack.IDX_MAGIC).putInt(Pack.IDX_VERSION)
+                .putInt(order.length);
+        int total = 0;
+        for (int n : fanout) {
+            total += n;
+            buf.putInt(total);
+        }
+        for (byte[] hash : hashes) {
+            buf.put(hash);
+        }
+        for (int i : order) {
+            buf.put((byte) (int) types.get(i));
+        }
+        for (int i : order) {
+            buf.putLong(offsets.get(i));
+        }
+        buf.put(checksum);
+        return buf.array();
+    }
+
+    /** @param out pack being written
+     *  @param deflater deflater to reuse
+     *  @param data bytes to write
+     * Writes data as one deflate stream. */
+    private static void deflate(OutputStream out, Deflater deflater,
+                                byte[] data) throws IOException {
+        DeflaterOutputStream deflated = new DeflaterOutputStream(
+                new Unclosed(out), deflater);
+        deflated.write(data);
+        deflated.finish();
+        deflater.reset();
+    }
+
+    /** @param out pack being written
+     *  @param deflater deflater to reuse
+     *  @param in stream of the bytes to write
+     * Writes the contents of in as one deflate stream. */
+    private static void deflate(OutputStream out, Deflater deflater,
+                                InputStream in) throws IOException {
+        DeflaterOutputStream deflated = new DeflaterOutputStream(
+                new Unclosed(out), deflater);
+        in.transferTo(deflated);
+        deflated.finish();
+        deflater.reset();
+    }
+
+    /** Returns a new SHA-1 digest. */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(
+                    "System does not support SHA-1");
+        }
+    }
+
+    /** A loose blob to be packed. */
+    private static class Candidate {
+        /** Id of the blob. */
+        private final String id;
+        /** Path the blob was first committed at, or "". */
+        private final String name;
+        /** Size of the contents. */
+        private final long size;
+        /** Contents, while the blob is in the window. */
+        private byte[] data;
+        /** Number of deltas to apply to reach the contents. */
+        private int depth;
+        /** Offset of the blob's entry in the pack. */
+        private long offset;
+
+        /** @param i id
+         *  @param n file name
+         *  @param s size
+         * Initializes a candidate. */
+        Candidate(String i, String n, long s) {
+            id = i;
+            name = n;
+            size = s;
+        }
+    }
+
+    /** Stream that counts and digests the bytes written through it. */
+    private static class CountingStream extends FilterOutputStream {
+        /** Digest of the bytes written. */
+        private final MessageDigest digest;
+        /** Number of bytes written. */
+        private long count;
+
+        /** @param out stream to write to
+         *  @param md digest to update
+         * Initializes a counting stream. */
+        CountingStream(OutputStream out, MessageDigest md) {
+            super(out);
+            digest = md;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            digest.update((byte) b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            digest.update(b, off, len);
+            count += len;
+        }
+    }
+
+    /** Stream that leaves the stream it wraps open when closed. */
+    private static class Unclosed extends FilterOutputStream {
+        /** @param out stream to write to
+         * Initializes a stream over out. */
+        Unclosed(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
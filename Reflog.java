@@ -0,0 +1,179 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Reflogs: for HEAD and for every branch, a log of where the ref
+ *  pointed before and after each time it moved, one line per move:
+ *
+ *  <pre>
+ *  old id, new id, time in milliseconds, message, separated by spaces
+ *  </pre>
+ *
+ *  The log of HEAD is logs/HEAD and that of branch NAME is
+ *  logs/refs/heads/NAME. A move is appended with a single write, so
+ *  nothing already logged is ever rewritten, and the log is read from
+ *  its end, one block at a time, so looking at the last few moves does
+ *  not depend on how long the log is.
+ *  @author Eric Yang
+ */
+class Reflog {
+
+    /** Folder that holds the reflogs. */
+    static final File LOGS = new File(Main.GITLET.getPath()
+            + File.separator + "logs");
+    /** Id logged for a ref that did not exist yet. */
+    static final String NONE = new String(new char[Utils.UID_LENGTH])
+            .replace('\0', '0');
+    /** Number of bytes read from the end of a log at a time. */
+    private static final int BLOCK = 8192;
+
+    /** @param ref HEAD or the name of a branch
+     *  @param oldID id the ref pointed at, or null if it is new
+     *  @param newID id the ref points at now
+     *  @param message what moved the ref
+     * Appends one move to the log of the ref. */
+    static void append(String ref, String oldID, String newID,
+                       String message) {
+        File file = logFile(ref);
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        String line = (oldID == null ? NONE : oldID) + " " + newID + " "
+                + System.currentTimeMillis() + " "
+                + message.replace('\n', ' ') + "\n";
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw Utils.error("Could not write the reflog of %s.", ref);
+        }
+    }
+
+    /** @param ref HEAD or the name of a branch
+     * Deletes the log of the ref. */
+    static void delete(String ref) {
+        logFile(ref).delete();
+    }
+
+    /** @param ref HEAD or the name of a branch
+     *  @param n number of moves back, 0 for the latest
+     * @return the id the ref pointed at n moves ago, or null if the log
+     * is not that long */
+    static String at(String ref, int n) {
+        List<Entry> entries = tail(ref, n + 1);
+        return entries.size() > n ? entries.get(n).newID : null;
+    }
+
+    /** @param ref HEAD or the name of a branch
+     *  @param count most moves to read
+     * Reads the last count moves of the ref, reading the log backwards
+     * a block at a time until enough lines are found. Lines that can't
+     * be parsed, such as one cut short by a crash, are skipped.
+     * @return the moves, latest first */
+    static List<Entry> tail(String ref, int count) {
+        List<Entry> result = new ArrayList<Entry>();
+        File file = logFile(ref);
+        if (!file.isFile()) {
+            return result;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long pos = in.length();
+            byte[] rest = new byte[0];
+            while (pos > 0 && result.size() < count) {
+                int size = (int) Math.min(BLOCK, pos);
+                pos -= size;
+                byte[] block = new byte[size + rest.length];
+                in.seek(pos);
+                in.readFully(block, 0, size);
+                System.arraycopy(rest, 0, block, size, rest.length);
+                int end = block.length;
+                for (int i = end - 1; i >= 0 && result.size() < count; i--) {
+                    if (block[i] == '\n') {
+                        add(result, block, i + 1, end);
+                        end = i;
+                    }
+                }
+                if (pos == 0 && result.size() < count) {
+                    add(result, block, 0, end);
+                }
+                rest = Arrays.copyOfRange(block, 0, end);
+            }
+        } catch (IOException e) {
+            throw Utils.error("Could not read the reflog of %s.", ref);
+        }
+        return result;
+    }
+
+    /** @param into moves read so far
+     *  @param bytes bytes read from the log
+     *  @param from start of a line in bytes
+     *  @param to end of the line
+     * Adds the move on the line, if it is one. */
+    private static void add(List<Entry> into, byte[] bytes,
+                            int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        String[] fields = new String(bytes, from, to - from,
+                StandardCharsets.UTF_8).split(" ", 4);
+        if (fields.length < 4 || fields[0].length() != Utils.UID_LENGTH
+                || fields[1].length() != Utils.UID_LENGTH) {
+            return;
+        }
+        try {
+            Long.parseLong(fields[2]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        into.add(new Entry(fields[0], fields[1], fields[3]));
+    }
+
+    /** @param ref HEAD or the name of a branch
+     * @return the log file of the ref */
+    private static File logFile(String ref) {
+        if (ref.equals("HEAD")) {
+            return new File(LOGS, "HEAD");
+        }
+        return new File(LOGS, "refs" + File.separator + "heads"
+                + File.separator + ref);
+    }
+
+    /** One move of a ref. */
+    static class Entry {
+        /** Id the ref pointed at before the move, or NONE. */
+        private final String oldID;
+        /** Id the ref pointed at after the move. */
+        private final String newID;
+        /** What moved the ref. */
+        private final String message;
+
+        /** @param o old id
+         *  @param n new id
+         *  @param m message
+         * Initializes an entry. */
+        Entry(String o, String n, String m) {
+            oldID = o;
+            newID = n;
+            message = m;
+        }
+
+        /** Returns the id the ref pointed at before the move. */
+        String oldID() {
+            return oldID;
+        }
+
+        /** Returns the id the ref pointed at after the move. */
+        String newID() {
+            return newID;
+        }
+
+        /** Returns what moved the ref. */
+        String message() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Branches and HEAD, each kept in a small file of its own as in git:
+ *  refs/heads/NAME holds the id of the commit branch NAME points at,
+ *  and HEAD holds "ref: refs/heads/NAME" for the branch checked out, so
+ *  the id of HEAD is always that of its branch. A ref is changed by
+ *  writing its new contents to a .lock file beside it, which is created
+ *  exclusively so two commands cannot change it at once, and renaming
+ *  the lock over the ref. A ref therefore holds either its old or its
+ *  new value even if gitlet is killed half way. Every move is also
+ *  logged in the Reflog of the ref. Repositories whose refs
+ *  are still in POINT_DICT are converted the first time they are used.
+ *  @author Eric Yang
+ */
+class Refs {
+
+    /** Folder that holds the file of each branch. */
+    static final File HEADS = new File(Main.GITLET.getPath()
+            + File.separator + "refs" + File.separator + "heads");
+    /** File that names the branch checked out. */
+    static final File HEAD = new File(Main.GITLET.getPath()
+            + File.separator + "HEAD");
+    /** Suffix of the lock file of a ref. */
+    static final String LOCK_SUFFIX = ".lock";
+    /** Start of the contents of HEAD, before the branch name. */
+    private static final String SYMBOLIC = "ref: refs/heads/";
+
+    /** Commit ids of the branches read or written in this command, or
+     * null for names that are not branches. */
+    private static TreeMap<String, String> branches =
+            new TreeMap<String, String>();
+    /** Name of the branch checked out, once read. */
+    private static String head;
+    /** Whether a POINT_DICT has been looked for in this command. */
+    private static boolean migrated = false;
+
+    /** Returns the name of the branch HEAD is on. */
+    static String head() {
+        migrate();
+        if (head == null) {
+            String contents = read(HEAD);
+            if (contents == null || !contents.startsWith(SYMBOLIC)) {
+                throw Utils.error("HEAD is damaged.");
+            }
+            head = contents.substring(SYMBOLIC.length());
+        }
+        return head;
+    }
+
+    /** @param branch name of a branch
+     *  @param message what moved HEAD, for its reflog
+     * Points HEAD at the given branch. */
+    static void setHead(String branch, String message) {
+        migrate();
+        String old = HEAD.isFile() ? branch(head()) : null;
+        write(HEAD, SYMBOLIC + branch);
+        head = branch;
+        Reflog.append("HEAD", old, branch(branch), message);
+    }
+
+    /** @param name name of a branch
+     * @return the id of the commit the branch points at, or null if
+     * there is no such branch */
+    static String branch(String name) {
+        migrate();
+        if (!branches.containsKey(name)) {
+            branches.put(name, read(branchFile(name)));
+        }
+        return branches.get(name);
+    }
+
+    /** @param name name of a branch
+     *  @param id id of a commit
+     *  @param message what moved the branch, for its reflog
+     * Points the branch at the commit, creating it if needed. If HEAD
+     * is on the branch, the move is logged for HEAD as well. */
+    static void update(String name, String id, String message) {
+        migrate();
+        String old = branch(name);
+        write(branchFile(name), id);
+        branches.put(name, id);
+        Reflog.append(name, old, id, message);
+        if (HEAD.isFile() && name.equals(head())) {
+            Reflog.append("HEAD", old, id, message);
+        }
+    }
+
+    /** @param name name of a branch
+     * Deletes the branch and its reflog, holding its lock while
+     * doing so. */
+    static void delete(String name) {
+        migrate();
+        File file = branchFile(name);
+        File lock = lock(file);
+        file.delete();
+        Reflog.delete(name);
+        lock.delete();
+        branches.put(name, null);
+    }
+
+    /** Returns the names of all the branches, in sorted order. */
+    static List<String> names() {
+        migrate();
+        List<String> result = new ArrayList<String>();
+        for (String name : Utils.workingFiles(HEADS)) {
+            if (!name.endsWith(LOCK_SUFFIX)) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /** @param name name of a branch
+     * @return the file of the branch */
+    private static File branchFile(String name) {
+        return new File(HEADS, name);
+    }
+
+    /** @param file file of a ref
+     * @return the contents of the ref, or null if there is none */
+    private static String read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        return Utils.readContentsAsString(file).trim();
+    }
+
+    /** @param file file of a ref
+     *  @param contents new value of the ref
+     * Replaces the ref through its lock file. */
+    private static void write(File file, String contents) {
+        File lock = lock(file);
+        try {
+            Utils.writeContents(lock, contents + "\n");
+            Files.move(lock.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | IllegalArgumentException e) {
+            lock.delete();
+            throw Utils.error("Could not update %s: %s",
+                    file.getName(), e.getMessage());
+        }
+    }
+
+    /** @param file file of a ref
+     * Takes the lock of the ref.
+     * @return the lock file, which the caller must rename or delete */
+    private static File lock(File file) {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        File lock = new File(file.getPath() + LOCK_SUFFIX);
+        try {
+            Files.createFile(lock.toPath());
+        } catch (FileAlreadyExistsException e) {
+            throw Utils.error("Unable to lock %s: another command may be "
+                    + "running, or delete %s if one was killed.",
+                    file.getName(), lock.getPath());
+        } catch (IOException e) {
+            throw Utils.error("Unable to lock %s: %s",
+                    file.getName(), e.getMessage());
+        }
+        return lock;
+    }
+
+    /** Moves the refs out of the POINT_DICT of a repository made before
+     * refs had files of their own. HEAD is written last, so a
+     * conversion that was cut short is simply done again. */
+    @SuppressWarnings("unchecked")
+    private static void migrate() {
+        if (migrated) {
+            return;
+        }
+        migrated = true;
+        if (HEAD.isFile() || !Repo.POINT_DICT.isFile()) {
+            return;
+        }
+        TreeMap<String, String> points =
+                Utils.readObject(Repo.POINT_DICT, TreeMap.class);
+        for (Map.Entry<String, String> point : points.entrySet()) {
+            String name = point.getKey();
+            if (!name.equals("HEAD") && !name.equals("HEAD_BRANCH")) {
+                write(branchFile(name), point.getValue());
+            }
+        }
+        write(HEAD, SYMBOLIC + points.get("HEAD_BRANCH"));
+        Repo.POINT_DICT.delete();
+    }
+}
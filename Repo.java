@@ -1,25 +1,28 @@
 package gitlet;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.Iterator;
+import java.util.List;
 import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
 public class Repo {
-    /** Dictionary to store commit id and commit object. */
-    private static TreeMap<String, Commit> dictCom =
-            new TreeMap<String, Commit>();
-    /** Dictionary to store blob id and file name. */
+    /** File names of the blobs saved before blob ids were pure content
+     * hashes, by id, as read from BLOB_DICT. It is no longer written. */
     private static TreeMap<String, String> dictBlob =
             new TreeMap<String, String>();
-    /** Dictionary to store pointer name and commit id. */
-    private static TreeMap<String, String> dictPoint =
-            new TreeMap<String, String>();
     /** Dictionary to store remote names and remote objects. */
     private static TreeMap<String, Remote> dictRemote =
             new TreeMap<String, Remote>();
 
+    /** Form of a commit given by its place in a reflog. */
+    private static final Pattern REFLOG_SPEC =
+            Pattern.compile("(.*)@\\{([0-9]+)\\}");
+
+    /** Whether the dictionaries have been read in for this command. */
+    private static boolean loaded = false;
+
     /** Folder that holds all the Repo info. */
     static final File REPO = new File(Main.GITLET.getPath()
             + File.separator + "Repo");
@@ -29,14 +32,19 @@ public class Repo {
     /** Folder that holds all the blobs. */
     static final File BLOBS = new File(Main.GITLET.getPath()
             + File.separator + "BLOBS");
-
-    /** File that holds the commit dictionary and ensures it persists. */
-    static final File COMMIT_DICT = new File(REPO.getPath()
-            + File.separator + "COMMIT_DICT.txt");
-    /** File that holds the pointer dictionary and ensures it persists. */
+    /** Folder that holds the trees of commit snapshots. */
+    static final File TREES = new File(Main.GITLET.getPath()
+            + File.separator + "TREES");
+    /** Folder that holds the packs made by the pack command. */
+    static final File PACKS = new File(Main.GITLET.getPath()
+            + File.separator + "PACKS");
+
+    /** File that held the pointers of repositories made before each
+     * ref had a file of its own in Refs. */
     static final File POINT_DICT = new File(REPO.getPath()
             + File.separator + "POINT_DICT.txt");
-    /** File that holds the blob dictionary and ensures it persists. */
+    /** File that holds the blob dictionary of repositories made before
+     * blob ids were pure content hashes. */
     static final File BLOB_DICT = new File(REPO.getPath()
             + File.separator + "BLOB_DICT.txt");
 
@@ -49,14 +57,14 @@ public class Repo {
             return;
         }
         setUpFolders();
-        setUpRepo();
         Staging.init();
-        Commit initial = new Commit();
-        dictCom.put(initial.id(), initial);
-        dictPoint.put("HEAD", initial.id());
-        dictPoint.put("master", initial.id());
-        dictPoint.put("HEAD_BRANCH", "master");
-        writeRepo();
+        Commit initial = Commit.initial();
+        CommitStore.put(initial.id(), initial);
+        CommitGraph.get();
+        MessageIndex.add(initial);
+        String message = "commit (initial): " + initial.getMessage();
+        Refs.update("master", initial.id(), message);
+        Refs.setHead("master", message);
     }
 
 
@@ -66,60 +74,51 @@ public class Repo {
         REPO.mkdir();
         COMMITS.mkdir();
         BLOBS.mkdir();
+        TREES.mkdir();
+        PACKS.mkdir();
+        Chunker.CHUNKS.mkdir();
     }
 
-    /** Helper method for setting up the Repo files. */
-    public static void setUpRepo() {
-        try {
-            COMMIT_DICT.createNewFile();
-            BLOB_DICT.createNewFile();
-            POINT_DICT.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /** Use after making changes in any of
-     * files below and saves changes into file. */
-    public static void writeRepo() {
-        Utils.writeObject(COMMIT_DICT, dictCom);
-        Utils.writeObject(BLOB_DICT, dictBlob);
-        Utils.writeObject(POINT_DICT, dictPoint);
-    }
-
-    /** Reads the files to make sure data
-     * structures properly updated and persisted.
+    /** Reads the files into the dictionaries the first time
+     * they are needed during a command, every later lookup
+     * is served from memory.
      * @SuppressWarnings since guarantee
      * read objects is appropriate ones. */
     @SuppressWarnings("unchecked")
     public static void readRepo() {
-        dictCom = Utils.readObject(COMMIT_DICT, TreeMap.class);
-        dictBlob = Utils.readObject(BLOB_DICT, TreeMap.class);
-        dictPoint = Utils.readObject(POINT_DICT, TreeMap.class);
+        if (loaded) {
+            return;
+        }
+        if (BLOB_DICT.exists()) {
+            dictBlob = Utils.readObject(BLOB_DICT, TreeMap.class);
+        }
+        loaded = true;
     }
 
     /** @param id commit id
      * Translate a commit id into the commit object.
      * @return a commit with given id */
     public static Commit translateCommit(String id) {
-        readRepo();
-        return dictCom.get(id);
+        return CommitStore.get(id);
     }
 
     /** @param id blob id
-     * Translates a blob id into the blob name.
-     * @return the file name of given blob id */
-    public static String translateBlob(String id) {
+     *  @param name file name
+     * Checks whether the blob was saved from a file of that name before
+     * blob ids were pure content hashes, in which case its id is the
+     * hash of the name followed by the contents.
+     * @return whether id is such a blob of name */
+    public static boolean isNamedBlob(String id, String name) {
         readRepo();
-        return dictBlob.get(id);
+        return name.equals(dictBlob.get(id));
     }
 
-    /** @param point name of pointer
+    /** @param point name of a branch, or HEAD
      * Translates name of pointer into commit id.
-     * @return the commit id of given pointer */
+     * @return the commit id of given pointer, or null if
+     * there is no branch with that name */
     public static String translatePoint(String point) {
-        readRepo();
-        return dictPoint.get(point);
+        return Refs.branch(point.equals("HEAD") ? Refs.head() : point);
     }
 
     /**
@@ -132,53 +131,49 @@ public class Repo {
     }
 
     public static void newBranch(String name) {
-        readRepo();
-        if (dictPoint.containsKey(name)) {
+        if (hasBranch(name)) {
             Utils.message("A branch with that name already exists.");
             return;
         }
-        changePointer(name, translatePoint("HEAD"));
-        writeRepo();
+        changePointer(name, translatePoint("HEAD"),
+                "branch: Created from " + currentHeadBranch());
     }
 
     /** Returns the Commit obj of the current head commit.
      * @return the current head commit */
     public static Commit currentHead() {
-        readRepo();
         return translateCommit(translatePoint("HEAD"));
     }
 
     /** Returns the name of the branch HEAD is on.
      * @return String of current branch HEAD on */
     public static String currentHeadBranch() {
-        readRepo();
-        return translatePoint("HEAD_BRANCH");
+        return Refs.head();
     }
 
     /** @param newBranch name of new branch to point at
-     * Changes the HEAD_BRANCH to point at given branch name.
-     * and changes the */
+     * Changes HEAD to point at given branch name, which
+     * also makes the head commit that of the branch. */
     public static void changeBranch(String newBranch) {
-        readRepo();
-        changePointer("HEAD_BRANCH", newBranch);
-        writeRepo();
+        Refs.setHead(newBranch, "checkout: moving from "
+                + currentHeadBranch() + " to " + newBranch);
     }
 
-    /**@param newBranch name of new branch to point at
-     * Changes the HEAD to point at the right
-     * commit id.*/
-    public static void changeHead(String newBranch) {
-        readRepo();
-        String id = translatePoint(newBranch);
-        changePointer("HEAD", id);
-        writeRepo();
+    /** @param name name of a branch
+     * @return whether there is a branch with that name */
+    public static boolean hasBranch(String name) {
+        return Refs.branch(name) != null;
+    }
+
+    /** Returns the names of all the branches, in sorted order. */
+    public static List<String> branches() {
+        return Refs.names();
     }
 
     /** @param branchName name of the branch
      * Removes the branch pointer with given name */
     public static void removeBranch(String branchName) {
-        readRepo();
-        if (!getDictPoint().containsKey(branchName)) {
+        if (!hasBranch(branchName)) {
             Utils.message("A branch with that name does not exist.");
             return;
         }
@@ -186,34 +181,16 @@ public class Repo {
             Utils.message("Cannot remove the current branch.");
             return;
         }
-        getDictPoint().remove(branchName);
-        writeRepo();
+        Refs.delete(branchName);
     }
 
     /** @param id hash of the commit
      *  @param item commit object associated with id
-     * Puts commit into commit dictionary with proper persistence */
+     * Puts commit into the commit store with proper persistence */
     public static void putCommit(String id, Commit item) {
-        readRepo();
-        dictCom.put(id, item);
-        writeRepo();
-    }
-
-    /** @param id hash of the blob
-     *  @param name file name associated with id
-     * Puts blob into blob dictionary with proper persistence protocol. */
-    public static void putBlob(String id, String name) {
-        readRepo();
-        dictBlob.put(id, name);
-        writeRepo();
-    }
-
-    /** @param id blob id to remove
-     * Removes blob from blob dictionary with proper persistence protocol. */
-    public static void removeBlob(String id) {
-        readRepo();
-        dictBlob.remove(id);
-        writeRepo();
+        CommitStore.put(id, item);
+        CommitGraph.add(item);
+        MessageIndex.add(item);
     }
 
     /** Puts the remote object into the collection.
@@ -223,38 +200,17 @@ public class Repo {
     public static void putRemote(String name, Remote remote) {
         readRepo();
         dictRemote.put(name, remote);
-        writeRepo();
     }
 
-    /** @param pointer pointer name to change
+    /** @param pointer name of the branch to change
      *  @param id commit id to point at
+     *  @param message what moved the branch, for the reflog
      * Changes or adds pointers to the correct
-     * commit w/ proper persistence protocol. */
-    public static void changePointer(String pointer, String id) {
-        readRepo();
-        dictPoint.put(pointer, id);
-        writeRepo();
-    }
-
-    /** Accessor method for commit dictionary.
-     * @return the dictionary of commits */
-    public static TreeMap<String, Commit> getDictCom() {
-        readRepo();
-        return dictCom;
-    }
-
-    /** Accessor method for blob dictionary.
-     * @return the dictionary of blobs */
-    public static TreeMap<String, String> getDictBlob() {
-        readRepo();
-        return dictBlob;
-    }
-
-    /** Accessor method for point dictionary.
-     * @return the dictionary of pointers */
-    public static TreeMap<String, String> getDictPoint() {
-        readRepo();
-        return dictPoint;
+     * commit w/ proper persistence protocol, which
+     * replaces the file of the branch at once. */
+    public static void changePointer(String pointer, String id,
+                                     String message) {
+        Refs.update(pointer, id, message);
     }
 
     /** Accessor method for remote dictionary.
@@ -271,24 +227,31 @@ public class Repo {
         readRepo();
         dictRemote.get(name);
         dictRemote.remove(name);
-        writeRepo();
     }
 
-    /** @param id commit id to check
+    /** @param id commit id to check, possibly abbreviated
      *  Checks a commit ID to see which one
      *  it matches with in the repository.
-     *  @return the full commit id that matches */
+     *  It may also be REF@{N}, the commit HEAD or branch REF
+     *  pointed at N moves ago according to its reflog, where
+     *  an empty REF stands for the current branch.
+     *  @return the full commit id that starts with id, or null
+     *  @throws GitletException if several commit ids start with id */
     public static String equivCommit(String id) {
-        readRepo();
-        Iterator<String> commitIDs = getDictCom()
-                .keySet().iterator();
-        while (commitIDs.hasNext()) {
-            String commitID = commitIDs.next();
-            if (commitID.contains(id)) {
-                return commitID;
-            }
+        Matcher spec = REFLOG_SPEC.matcher(id);
+        if (!spec.matches()) {
+            return CommitStore.resolve(id);
+        }
+        String ref = spec.group(1).isEmpty()
+                ? currentHeadBranch() : spec.group(1);
+        if (!ref.equals("HEAD") && !hasBranch(ref)) {
+            return null;
+        }
+        try {
+            return Reflog.at(ref, Integer.parseInt(spec.group(2)));
+        } catch (NumberFormatException e) {
+            return null;
         }
-        return null;
     }
 
 }
@@ -2,10 +2,12 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.StandardCopyOption;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.TreeMap;
-import java.nio.file.Files;
 import java.util.Iterator;
+import java.util.List;
 
 
 public class Staging {
@@ -19,13 +21,24 @@ public class Staging {
     private static TreeMap<String, String> removal =
             new TreeMap<String, String>();
 
+    /** Whether stage and removal have been read in for this command. */
+    private static boolean loaded = false;
+    /** Whether stage or removal changed since they were read in. */
+    private static boolean dirty = false;
+
     /** Holds all the necessary files of the staging area. */
     static final File STAGING_FOLDER = new File(Main.GITLET.getPath()
             + File.separator + "staging");
-    /** Serialized version of stage variable for persistence. */
+    /** Serialized version of stage and removal together for persistence,
+     * so that both are always replaced in one atomic rename. */
+    static final File INDEX_FILE = new File(STAGING_FOLDER.getPath()
+            + File.separator + "index.txt");
+    /** Serialized version of stage variable, only read from
+     * staging areas written before INDEX_FILE existed. */
     static final File STAGE_FILE = new File(STAGING_FOLDER.getPath()
             + File.separator + "stage.txt");
-    /** Serialized version of removal variable for persistence. */
+    /** Serialized version of removal variable, only read from
+     * staging areas written before INDEX_FILE existed. */
     static final File REMOVAL_FILE = new File(STAGING_FOLDER.getPath()
             + File.separator + "removal.txt");
     /** Folder to physically hold staged blobs copied over. */
@@ -40,6 +53,8 @@ public class Staging {
         STAGING_FOLDER.mkdir();
         STAGE_FOLDER.mkdir();
         REMOVE_FOLDER.mkdir();
+        loaded = true;
+        dirty = true;
         writeStaging();
     }
 
@@ -59,12 +74,11 @@ public class Staging {
         String cwdBlobID = Blob.contentID(fileName);
         if (head.fileExists(fileName)) {
             String headContent = head.getBlobHash(fileName);
-            if (headContent.equals(cwdBlobID)) {
+            if (Blob.holds(fileName, cwdBlobID, headContent)) {
                 removeStaged(fileName);
                 if (removal.containsValue(cwdBlobID)) {
                     removeRemoval(fileName);
                 }
-                writeStaging();
                 return;
             }
         }
@@ -76,18 +90,27 @@ public class Staging {
         }
         addStaged(fileName, cwdBlobID);
         Blob.saveFileToBlobs(fileName);
-        writeStaging();
+    }
+
+    /** @param fileNames names of files to add
+     * Adds several files, hashing all of them in
+     * parallel up front. */
+    public static void addAll(List<String> fileNames) {
+        Blob.contentIDs(fileNames);
+        for (String fileName : fileNames) {
+            add(fileName);
+        }
     }
 
     /** Creates a new commit and sets head to it, with given
      * information in staging folder and removal folder.
-     * Suppresses iterator type warnings with generics.
+     * Only the staged files are applied to the parent's
+     * tree, so the files the parent tracked are not visited.
      * @param message for new commit
      * @param flag for merge situations
      * @param secondParent id of second parent
      * @param givenBranch name of given branch
      */
-    @SuppressWarnings("unchecked")
     public static void commit(String message, int flag,
                               String secondParent, String givenBranch) {
         readStaging();
@@ -97,53 +120,27 @@ public class Staging {
         }
         Commit currentHead = Repo.translateCommit
                 (Repo.translatePoint(Repo.currentHeadBranch()));
-        Commit next = new Commit(message, currentHead.id());
-        TreeMap parent = next.getParent().getTracked();
-        Iterator<String> parentBlobs = parent.values().iterator();
-        while (parentBlobs.hasNext()) {
-            String currParentBlobID = parentBlobs.next();
-            String parentBlobName = Repo.translateBlob(currParentBlobID);
-            if (!removal.containsKey(parentBlobName)) {
-                if (stage.containsKey(parentBlobName)) {
-                    next.updateTracked(parentBlobName,
-                            stage.get(parentBlobName));
-                    Repo.putBlob(stage.get(parentBlobName), parentBlobName);
-                } else {
-                    next.updateTracked(parentBlobName,
-                            currParentBlobID);
-                }
-                removeStaged(parentBlobName);
-            } else {
-                removeRemoval(parentBlobName);
-            }
+        Commit.Builder next = new Commit.Builder(message, currentHead.id());
+        for (String current : new ArrayList<String>(stage.keySet())) {
+            next.track(current, stage.get(current));
+            removeStaged(current);
         }
-        if (!stage.isEmpty()) {
-            Iterator<String> leftOverFileNames = stage.keySet().iterator();
-            while (leftOverFileNames.hasNext()) {
-                String current = leftOverFileNames.next();
-                next.updateTracked(current, stage.get(current));
-                removeStaged(current);
-            }
-        }
-        if (!removal.isEmpty()) {
-            Iterator<String> leftOverFileNames =
-                    removal.keySet().iterator();
-            while (leftOverFileNames.hasNext()) {
-                String current = leftOverFileNames.next();
-                removeRemoval(current);
-            }
+        for (String current : new ArrayList<String>(removal.keySet())) {
+            next.untrack(current);
+            removeRemoval(current);
         }
         if (flag == 1 || flag == 2) {
-            next.updateSecond(secondParent,
+            next.merge(secondParent,
                     Repo.currentHeadBranch(), givenBranch);
             if (flag == 2) {
                 Utils.message("Encountered a merge conflict.");
             }
         }
-        Repo.putCommit(next.id(), next);
-        Repo.changePointer("HEAD", next.id());
-        Repo.changePointer(Repo.currentHeadBranch(), next.id());
-        writeStaging();
+        Commit made = next.build();
+        Repo.putCommit(made.id(), made);
+        Repo.changePointer(Repo.currentHeadBranch(), made.id(),
+                (flag == 0 ? "commit: " : "commit (merge): ")
+                        + made.getMessage());
     }
 
     /** @param fileName of file to remove
@@ -164,84 +161,67 @@ public class Staging {
         }
         if (stageFlag == 0 && trackedFlag == 0) {
             Utils.message("No reason to remove the file.");
-            return;
         }
-        writeStaging();
     }
 
     private static void addRemoval(String fileName, String id) {
-        readStaging();
         File temp = new File(Main.CWD.getPath()
                 + File.separator + fileName);
-        File dest = new File(REMOVE_FOLDER.getPath()
-                + File.separator + id + ".txt");
-        if (temp.exists()) {
-            removal.put(fileName, id);
-            try {
-                Files.copy(temp.toPath(), dest.toPath(),
-                        StandardCopyOption.REPLACE_EXISTING);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        } else {
-            Commit currHead = Repo.currentHead();
-            removal.put(fileName, currHead.getBlobHash(fileName));
-            File blob = new File(Repo.BLOBS.getPath()
-                    + File.separator + currHead.getBlobHash(fileName) + ".txt");
-            try {
-                Files.copy(blob.toPath(), dest.toPath(),
-                        StandardCopyOption.REPLACE_EXISTING);
-            } catch (IOException e) {
-                e.printStackTrace();
+        String blobID = temp.exists()
+                ? id : Repo.currentHead().getBlobHash(fileName);
+        removal.put(fileName, blobID);
+        if (Blob.looseFile(REMOVE_FOLDER, blobID) == null) {
+            if (temp.exists()) {
+                Blob.store(temp, REMOVE_FOLDER, blobID);
+            } else {
+                try (InputStream in = Blob.openBlob(blobID)) {
+                    Blob.store(in, Blob.looseSize(Repo.BLOBS, blobID),
+                            REMOVE_FOLDER, blobID);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
-        Utils.restrictedDelete(fileName);
-        writeStaging();
+        Utils.deleteWorkingFile(fileName);
+        dirty = true;
     }
 
     private static void removeRemoval(String fileName) {
-        readStaging();
-        String removeId = removal.get(fileName);
-        File remove = new File(REMOVE_FOLDER.getPath()
-                + File.separator + removeId + ".txt");
-        remove.delete();
-        removal.remove(fileName);
-        writeStaging();
+        String id = removal.remove(fileName);
+        if (!removal.containsValue(id)) {
+            Blob.deleteLoose(REMOVE_FOLDER, id);
+        }
+        dirty = true;
     }
 
     /** @param fileName name of the file in cwd
      * @param id blob's id
      * Adds a file to the stage naming it off its id
      * and placing fileName/id relationship in
-     * staging TreeMap. */
+     * staging TreeMap. Files staged with the same
+     * contents share one copy. */
     private static void addStaged(String fileName, String id) {
-        readStaging();
         stage.put(fileName, id);
-        File temp = new File(Main.CWD.getPath()
-                + File.separator + fileName);
-        File dest = new File(STAGE_FOLDER.getPath()
-                + File.separator + id + ".txt");
-        try {
-            Files.copy(temp.toPath(), dest.toPath(),
-                    StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException e) {
-            e.printStackTrace();
+        dirty = true;
+        if (Blob.looseFile(STAGE_FOLDER, id) == null) {
+            File temp = new File(Main.CWD.getPath()
+                    + File.separator + fileName);
+            Blob.store(temp, STAGE_FOLDER, id);
         }
-        writeStaging();
     }
 
     /** @param fileName name of the file to remove
      *  Removes the file from the stage TreeMap
      *  and also physically deletes file version
-     *  copy inside the staging folder.
+     *  copy inside the staging folder, unless another
+     *  staged file still has the same contents.
      */
     private static void removeStaged(String fileName) {
-        readStaging();
-        File temp = new File(STAGE_FOLDER.getPath() + File.separator
-                + translateName(fileName) + ".txt");
-        temp.delete();
-        stage.remove(fileName);
-        writeStaging();
+        String id = stage.remove(fileName);
+        if (id != null && !stage.containsValue(id)) {
+            Blob.deleteLoose(STAGE_FOLDER, id);
+        }
+        dirty = true;
     }
 
     /** Clears all the staging area. */
@@ -251,21 +231,17 @@ public class Staging {
         while (stageFiles.hasNext()) {
             String currFile = stageFiles.next();
             String blobID = stage.get(currFile);
-            File blob = new File(Staging.STAGING_FOLDER.getPath()
-                    + File.separator + blobID + ".txt");
-            blob.delete();
+            Blob.deleteLoose(Staging.STAGE_FOLDER, blobID);
         }
         stage.clear();
         Iterator<String> removalFiles = removal.keySet().iterator();
         while (removalFiles.hasNext()) {
             String currFile = removalFiles.next();
             String blobID = removal.get(currFile);
-            File blob = new File(Staging.REMOVE_FOLDER.getPath()
-                    + File.separator + blobID + ".txt");
-            blob.delete();
+            Blob.deleteLoose(Staging.REMOVE_FOLDER, blobID);
         }
         removal.clear();
-        writeStaging();
+        dirty = true;
     }
 
     /** @param fileName name of file
@@ -298,33 +274,53 @@ public class Staging {
         return removal;
     }
 
-    /** Persistence setup for the TreeMaps
-     * in this class, stage and removal. */
+    /** Persists stage and removal if they changed during this
+     * command. Called once when the command finishes; both maps
+     * go into one file that replaces the old one atomically. */
     public static void writeStaging() {
-        try {
-            if (!STAGE_FILE.exists()) {
-                STAGE_FILE.createNewFile();
-            } else {
-                REMOVAL_FILE.createNewFile();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (!dirty) {
+            return;
         }
-        Utils.writeObject(STAGE_FILE, stage);
-        Utils.writeObject(REMOVAL_FILE, removal);
+        StagingIndex index = new StagingIndex();
+        index.stage = stage;
+        index.removal = removal;
+        Utils.writeObjectAtomic(INDEX_FILE, index);
+        dirty = false;
     }
 
-    /** Reads the current files stored of the TreeMaps
-     * of removal and staged so it has the most
-     * up-to-date information about the staging area.
+    /** Reads stage and removal the first time they are needed
+     * during a command, every later mutation happens in memory
+     * until writeStaging() persists them.
      * @SuppressWarning exists to block unchecked cast
      * warnings since reading the object will always
      * guarantee what is needed and there is no need for warnings. */
     @SuppressWarnings("unchecked")
     public static void readStaging() {
-        removal = (TreeMap<String, String>)
-                Utils.readObject(REMOVAL_FILE, TreeMap.class);
-        stage = (TreeMap<String, String>)
-                Utils.readObject(STAGE_FILE, TreeMap.class);
+        if (loaded) {
+            return;
+        }
+        if (INDEX_FILE.exists()) {
+            StagingIndex index =
+                    Utils.readObject(INDEX_FILE, StagingIndex.class);
+            stage = index.stage;
+            removal = index.removal;
+        } else {
+            removal = (TreeMap<String, String>)
+                    Utils.readObject(REMOVAL_FILE, TreeMap.class);
+            stage = (TreeMap<String, String>)
+                    Utils.readObject(STAGE_FILE, TreeMap.class);
+        }
+        loaded = true;
+    }
+
+    /** Persistent form of the staging area. */
+    private static class StagingIndex implements Serializable {
+        /** Snapshot of stage. */
+        private TreeMap<String, String> stage;
+        /** Snapshot of removal. */
+        private TreeMap<String, String> removal;
+
+        /** ID to ensure that serialization goes off with no issue. */
+        private static final long serialVersionUID = 4418620937261559311L;
     }
 }
@@ -0,0 +1,320 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** One directory of a commit's snapshot. A tree maps the names of the
+ *  files in the directory to blob ids and the names of its
+ *  subdirectories to the ids of their own trees, and is stored under the
+ *  hash of its encoding:
+ *
+ *  <pre>
+ *  'G' 'T' VERSION  varint entry count, then in name order:
+ *    type byte (BLOB_ENTRY or TREE_ENTRY),
+ *    varint name length, name bytes, 20-byte id
+ *  </pre>
+ *
+ *  Since a tree's id only depends on what it holds, a directory that did
+ *  not change keeps its id and is shared by every commit that has it,
+ *  and a commit changing one file writes only the trees on the path to
+ *  that file. Paths inside a snapshot always use '/' between names.
+ *  @author Eric Yang
+ */
+class Tree {
+
+    /** First two bytes of every encoded tree. */
+    private static final byte[] MAGIC = {'G', 'T'};
+    /** Version of the layout. */
+    private static final int VERSION = 1;
+    /** Type of an entry naming a file. */
+    private static final int BLOB_ENTRY = 0;
+    /** Type of an entry naming a subdirectory. */
+    private static final int TREE_ENTRY = 1;
+    /** Maximum number of trees kept in memory at once. */
+    static final int CACHE_SIZE = 1024;
+
+    /** A tree with nothing in it. */
+    private static final Tree EMPTY = new Tree(
+            new TreeMap<String, String>(), new TreeMap<String, String>());
+
+    /** Recently used trees keyed by id. */
+    private static CommitStore.LruCache<Tree> cache =
+            new CommitStore.LruCache<Tree>(CACHE_SIZE);
+
+    /** Blob ids of the files of the directory, by name. */
+    private final TreeMap<String, String> blobs;
+    /** Tree ids of the subdirectories, by name. */
+    private final TreeMap<String, String> trees;
+
+    /** @param files blob ids of the files by name
+     *  @param dirs tree ids of the subdirectories by name
+     * Initializes a tree. */
+    private Tree(TreeMap<String, String> files,
+                 TreeMap<String, String> dirs) {
+        blobs = files;
+        trees = dirs;
+    }
+
+    /** @param id id of a tree
+     *  @param path path of a file below the tree
+     * Looks a file up by walking down one tree per directory of path.
+     * @return the blob id of the file, or null if it is not tracked */
+    static String blobAt(String id, String path) {
+        Tree tree = get(id);
+        int start = 0;
+        int slash;
+        while ((slash = path.indexOf('/', start)) >= 0) {
+            String dir = tree.trees.get(path.substring(start, slash));
+            if (dir == null) {
+                return null;
+            }
+            tree = get(dir);
+            start = slash + 1;
+        }
+        return tree.blobs.get(path.substring(start));
+    }
+
+    /** @param id id of a tree
+     * Lists every file below the tree.
+     * @return the blob ids of the files by path */
+    static TreeMap<String, String> flatten(String id) {
+        TreeMap<String, String> result = new TreeMap<String, String>();
+        flatten(id, "", result);
+        return result;
+    }
+
+    /** @param id id of a tree
+     *  @param prefix path of the tree followed by '/', or ""
+     *  @param into map the files are added to */
+    private static void flatten(String id, String prefix,
+                                TreeMap<String, String> into) {
+        Tree tree = get(id);
+        for (Map.Entry<String, String> file : tree.blobs.entrySet()) {
+            into.put(prefix + file.getKey(), file.getValue());
+        }
+        for (Map.Entry<String, String> dir : tree.trees.entrySet()) {
+            flatten(dir.getValue(), prefix + dir.getKey() + "/", into);
+        }
+    }
+
+    /** @param from id of the old tree, or null for an empty one
+     *  @param to id of the new tree, or null for an empty one
+     * Compares two trees, going into a subdirectory only if its tree
+     * differs between them, so the work done depends on how much
+     * changed rather than on the size of the snapshots.
+     * @return the new blob id of every path added or modified, and
+     * null for every path deleted, in the form edit takes */
+    static TreeMap<String, String> diff(String from, String to) {
+        TreeMap<String, String> result = new TreeMap<String, String>();
+        diff(from, to, "", result);
+        return result;
+    }
+
+    /** @param from id of the old tree, or null
+     *  @param to id of the new tree, or null
+     *  @param prefix path of the trees followed by '/', or ""
+     *  @param into map the changes are added to */
+    private static void diff(String from, String to, String prefix,
+                             TreeMap<String, String> into) {
+        if (Objects.equals(from, to)) {
+            return;
+        }
+        Tree before = from == null ? EMPTY : get(from);
+        Tree after = to == null ? EMPTY : get(to);
+        TreeSet<String> files = new TreeSet<String>(before.blobs.keySet());
+        files.addAll(after.blobs.keySet());
+        for (String name : files) {
+            String blob = after.blobs.get(name);
+            if (!Objects.equals(before.blobs.get(name), blob)) {
+                into.put(prefix + name, blob);
+            }
+        }
+        TreeSet<String> dirs = new TreeSet<String>(before.trees.keySet());
+        dirs.addAll(after.trees.keySet());
+        for (String name : dirs) {
+            diff(before.trees.get(name), after.trees.get(name),
+                    prefix + name + "/", into);
+        }
+    }
+
+    /** @param id id of a tree
+     *  @param trees ids of the trees already found, added to
+     *  @param blobs ids of the blobs already found, added to
+     * Finds every tree and blob below the tree, not going into a tree
+     * found before, so each is read at most once however many commits
+     * share it. */
+    static void reach(String id, Set<String> trees, Set<String> blobs) {
+        if (!trees.add(id)) {
+            return;
+        }
+        Tree tree = get(id);
+        blobs.addAll(tree.blobs.values());
+        for (String dir : tree.trees.values()) {
+            reach(dir, trees, blobs);
+        }
+    }
+
+    /** @param id id of the tree to start from, or null for an empty one
+     *  @param changes blob ids of the files to track by path, or null
+     *  for the files to stop tracking
+     * Writes the trees of id with changes applied. Only the trees of
+     * directories that hold a changed path are written again; every
+     * other subtree is referred to by its old id. A directory left
+     * without files is dropped, and a file replaces a directory of the
+     * same name or the other way around.
+     * @return the id of the new tree */
+    static String edit(String id, SortedMap<String, String> changes) {
+        TreeMap<String, String> files = new TreeMap<String, String>();
+        TreeMap<String, String> dirs = new TreeMap<String, String>();
+        if (id != null) {
+            Tree tree = get(id);
+            files.putAll(tree.blobs);
+            dirs.putAll(tree.trees);
+        }
+        TreeMap<String, TreeMap<String, String>> below =
+                new TreeMap<String, TreeMap<String, String>>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    files.remove(path);
+                } else {
+                    files.put(path, change.getValue());
+                    dirs.remove(path);
+                }
+            } else {
+                below.computeIfAbsent(path.substring(0, slash),
+                        d -> new TreeMap<String, String>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> dir
+                 : below.entrySet()) {
+            String name = dir.getKey();
+            String sub = edit(dirs.get(name), dir.getValue());
+            if (get(sub).isEmpty()) {
+                dirs.remove(name);
+            } else if (!sub.equals(dirs.get(name))) {
+                dirs.put(name, sub);
+                files.remove(name);
+            }
+        }
+        return put(new Tree(files, dirs));
+    }
+
+    /** @param files blob ids of files by path
+     * Writes the trees holding exactly the given files.
+     * @return the id of the root tree */
+    static String of(SortedMap<String, String> files) {
+        return edit(null, files);
+    }
+
+    /** Returns whether the directory has no files below it. */
+    private boolean isEmpty() {
+        return blobs.isEmpty() && trees.isEmpty();
+    }
+
+    /** @param id id of a tree
+     * Loads the tree with given id.
+     * @return the tree */
+    static Tree get(String id) {
+        Tree tree = cache.get(id);
+        if (tree != null) {
+            return tree;
+        }
+        File file = treeFile(id);
+        byte[] data;
+        if (file.isFile()) {
+            data = Utils.readContents(file);
+        } else {
+            data = Pack.read(id);
+            if (data == null) {
+                throw Utils.error("Missing tree %s.", id);
+            }
+        }
+        tree = decode(data);
+        cache.put(id, tree);
+        return tree;
+    }
+
+    /** @param id id of a tree
+     * @return whether the tree is stored, loose or packed */
+    static boolean contains(String id) {
+        return cache.containsKey(id) || treeFile(id).isFile()
+                || Pack.has(id);
+    }
+
+    /** @param id id of a tree
+     * @return the file holding the tree when it is loose */
+    static File treeFile(String id) {
+        return new File(Repo.TREES.getPath()
+                + File.separator + id + ".txt");
+    }
+
+    /** @param tree tree to store
+     * Stores the tree unless a tree with the same contents is stored.
+     * @return the id of the tree */
+    private static String put(Tree tree) {
+        byte[] data = tree.encode();
+        String id = Utils.sha1(data);
+        if (!contains(id)) {
+            Repo.TREES.mkdir();
+            Utils.writeContentsAtomic(treeFile(id), (Object) data);
+        }
+        cache.put(id, tree);
+        return id;
+    }
+
+    /** Returns the tree in the layout it is saved in. */
+    private byte[] encode() {
+        TreeMap<String, Integer> types = new TreeMap<String, Integer>();
+        for (String name : blobs.keySet()) {
+            types.put(name, BLOB_ENTRY);
+        }
+        for (String name : trees.keySet()) {
+            types.put(name, TREE_ENTRY);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(VERSION);
+        CommitFormat.writeVarint(out, types.size());
+        for (Map.Entry<String, Integer> entry : types.entrySet()) {
+            String name = entry.getKey();
+            out.write(entry.getValue());
+            CommitFormat.writeBytes(out,
+                    name.getBytes(StandardCharsets.UTF_8));
+            CommitFormat.writeHash(out, entry.getValue() == BLOB_ENTRY
+                    ? blobs.get(name) : trees.get(name));
+        }
+        return out.toByteArray();
+    }
+
+    /** @param data encoded tree
+     * @return the decoded tree */
+    private static Tree decode(byte[] data) {
+        if (data.length < MAGIC.length + 1
+                || data[0] != MAGIC[0] || data[1] != MAGIC[1]
+                || data[2] != VERSION) {
+            throw Utils.error("Not a tree object.");
+        }
+        CommitFormat.Reader in = new CommitFormat.Reader(data);
+        in.readRaw(new byte[MAGIC.length + 1], 0, MAGIC.length + 1);
+        TreeMap<String, String> files = new TreeMap<String, String>();
+        TreeMap<String, String> dirs = new TreeMap<String, String>();
+        long count = in.readVarint();
+        for (long i = 0; i < count; i++) {
+            int type = in.readByte();
+            String name = new String(in.readBytes(), StandardCharsets.UTF_8);
+            (type == TREE_ENTRY ? dirs : files).put(name, in.readHash());
+        }
+        return new Tree(files, dirs);
+    }
+}
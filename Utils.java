@@ -11,13 +11,18 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Formatter;
+import java.util.Collections;
 import java.util.List;
 
 
@@ -31,28 +36,100 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** Size of the buffer files are hashed through. */
+    private static final int HASH_BUFFER_SIZE = 1 << 16;
+
+    /** SHA-1 digest of each thread, reset after every use. */
+    private static final ThreadLocal<MessageDigest> DIGEST =
+        ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException(
+                    "System does not support SHA-1");
+            }
+        });
+
+    /** Buffer of each thread that files are read through to be hashed. */
+    private static final ThreadLocal<ByteBuffer> HASH_BUFFER =
+        ThreadLocal.withInitial(
+            () -> ByteBuffer.allocateDirect(HASH_BUFFER_SIZE));
+
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
+            }
+        }
+        byte[] digest = md.digest();
+        return toHex(digest, 0, digest.length);
+    }
+
+    /** Returns the SHA-1 hash of PREFIX followed by the contents of FILE.
+     *  The file is streamed through a fixed size buffer, so hashing uses
+     *  constant memory whatever the size of FILE, and its bytes are hashed
+     *  as they are rather than decoded as text.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static String sha1File(String prefix, File file) {
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        md.update(prefix.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer buffer = HASH_BUFFER.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] digest = md.digest();
+        return toHex(digest, 0, digest.length);
+    }
+
+    /** Hexadecimal digits, indexed by value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Returns LENGTH bytes of BYTES starting at OFFSET as a lower-case
+     *  hexadecimal numeral. */
+    static String toHex(byte[] bytes, int offset, int length) {
+        char[] result = new char[2 * length];
+        for (int i = 0; i < length; i++) {
+            int b = bytes[offset + i] & 0xFF;
+            result[2 * i] = HEX_DIGITS[b >>> 4];
+            result[2 * i + 1] = HEX_DIGITS[b & 0xF];
+        }
+        return new String(result);
+    }
+
+    /** Returns the bytes denoted by the hexadecimal numeral HEX, which
+     *  must have an even number of digits.  Throws
+     *  IllegalArgumentException otherwise. */
+    static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("odd length hex string");
+        }
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("improper hex string");
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
+            result[i] = (byte) ((hi << 4) | lo);
         }
+        return result;
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -66,9 +143,14 @@ class Utils {
     /** Deletes FILE if it exists and is not a directory.  Returns true
      *  if FILE was deleted, and false otherwise.  Refuses to delete FILE
      *  and throws IllegalArgumentException unless the directory designated by
-     *  FILE also contains a directory named .gitlet. */
+     *  FILE, or one of the directories above it, also contains a directory
+     *  named .gitlet. */
     static boolean restrictedDelete(File file) {
-        if (!(new File(file.getParentFile(), ".gitlet")).isDirectory()) {
+        File top = file.getParentFile();
+        while (top != null && !new File(top, ".gitlet").isDirectory()) {
+            top = top.getParentFile();
+        }
+        if (top == null && !new File(".gitlet").isDirectory()) {
             throw new IllegalArgumentException("not .gitlet working directory");
         }
         if (!file.isDirectory()) {
@@ -86,6 +168,22 @@ class Utils {
         return restrictedDelete(new File(file));
     }
 
+    /** Deletes the working file at PATH, a path relative to the current
+     *  directory with '/' between directories, as restrictedDelete does,
+     *  then removes the directories its deletion left empty.  Returns
+     *  true if the file was deleted. */
+    static boolean deleteWorkingFile(String path) {
+        File file = new File(path);
+        if (!restrictedDelete(file)) {
+            return false;
+        }
+        File dir = file.getParentFile();
+        while (dir != null && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+        return true;
+    }
+
     /* READING AND WRITING FILE CONTENTS */
 
     /** Return the entire contents of FILE as a byte array.  FILE must
@@ -155,6 +253,29 @@ class Utils {
         writeContents(file, serialize(obj));
     }
 
+    /** Write OBJ to FILE so that readers see either the old or the new
+     *  contents, never a partial write: the bytes go to a temporary
+     *  sibling of FILE which is then renamed over it.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void writeObjectAtomic(File file, Serializable obj) {
+        writeContentsAtomic(file, serialize(obj));
+    }
+
+    /** Write the concatenation of CONTENTS to FILE as for writeContents,
+     *  replacing FILE with a single atomic rename.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void writeContentsAtomic(File file, Object... contents) {
+        File temp = new File(file.getPath() + ".tmp");
+        writeContents(temp, contents);
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /* DIRECTORIES */
 
     /** Filter out all but plain files. */
@@ -179,6 +300,34 @@ class Utils {
         }
     }
 
+    /** Returns the paths of all plain files below the directory DIR,
+     *  relative to DIR with '/' between directories, in lexicographic
+     *  order as Java Strings.  The .gitlet directory is skipped. */
+    static List<String> workingFiles(File dir) {
+        List<String> result = new ArrayList<String>();
+        workingFiles(dir, "", result);
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Adds the paths of the plain files below DIR to RESULT, each
+     *  preceded by PREFIX. */
+    private static void workingFiles(File dir, String prefix,
+                                     List<String> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile()) {
+                result.add(prefix + name);
+            } else if (file.isDirectory() && !name.equals(".gitlet")) {
+                workingFiles(file, prefix + name + "/", result);
+            }
+        }
+    }
+
     /** Returns a list of the names of all plain files in the directory DIR, in
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */